@@ -0,0 +1,107 @@
+package com.billmyservices.cli;
+
+import org.asynchttpclient.AsyncCompletionHandler;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.BoundRequestBuilder;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Async http client (HTTP/1.1) transport, one in-flight request holds one pooled connection.
+ */
+public final class AhcTransport implements Transport {
+
+    private final AsyncHttpClient httpClient;
+
+    /**
+     * Create a new one transport
+     *
+     * @param httpClient the http client to use
+     */
+    public AhcTransport(final AsyncHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> send(final TransportRequest request, final ResponseHandler<T> handler) {
+        final BoundRequestBuilder rq;
+        switch (request.getMethod()) {
+            case "POST":
+                rq = httpClient.preparePost(request.getUrl());
+                break;
+            case "GET":
+                rq = httpClient.prepareGet(request.getUrl());
+                break;
+            case "DELETE":
+                rq = httpClient.prepareDelete(request.getUrl());
+                break;
+            case "PUT":
+                rq = httpClient.preparePut(request.getUrl());
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("The http method `%s` is not supported", request.getMethod()));
+        }
+        for (int i = 0; i < request.getHeaderCount(); i++)
+            rq.addHeader(request.getHeaderName(i), request.getHeaderValue(i));
+        if (request.getTimeoutMs() > 0L)
+            rq.setRequestTimeout((int) Math.min(Integer.MAX_VALUE, request.getTimeoutMs()));
+
+        final ListenableFuture<T> sent = rq.execute(new AsyncCompletionHandler<T>() {
+            @Override
+            public State onStatusReceived(final HttpResponseStatus status) throws Exception {
+                handler.onStatus(status.getStatusCode());
+                return super.onStatusReceived(status);
+            }
+
+            @Override
+            public State onBodyPartReceived(final HttpResponseBodyPart content) throws Exception {
+                // not accumulated, the handler consumes the body parts
+                handler.onBodyPart(content.getBodyByteBuffer());
+                return State.CONTINUE;
+            }
+
+            @Override
+            public T onCompleted(final Response response) throws Exception {
+                return handler.onCompleted();
+            }
+        });
+
+        final CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(final boolean mayInterruptIfRunning) {
+                sent.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        sent.addListener(() -> {
+            try {
+                future.complete(sent.get());
+            } catch (ExecutionException e) {
+                future.completeExceptionally(e.getCause());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }, Runnable::run);
+        return future;
+    }
+
+    /**
+     * Return the async http client.
+     *
+     * @return the async http client.
+     */
+    public AsyncHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
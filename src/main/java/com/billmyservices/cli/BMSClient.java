@@ -2,17 +2,28 @@ package com.billmyservices.cli;
 
 import com.jsoniter.JsonIterator;
 import io.netty.handler.codec.http.HttpMethod;
-import org.asynchttpclient.*;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.ListenableFuture;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static io.netty.handler.codec.http.HttpMethod.*;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * Immutable, thread safe, http non blocking Bill My Service client.
@@ -22,15 +33,22 @@ public class BMSClient {
     private static final String HMAC_ALG = "HmacSHA256";
     private static final String DEFAULT_BMS_URL = "http://services.billmyservices.com";
     private static final String SETTING_NAME_URL = "billmyservices_url";
-    private static final String SETTING_NAME_USERID = "billmyservices_userid";
-    private static final String SETTING_NAME_SECRETKEY = "billmyservices_secretkey";
+    static final String SETTING_NAME_USERID = "billmyservices_userid";
+    static final String SETTING_NAME_SECRETKEY = "billmyservices_secretkey";
+    private static final long WATCH_MIN_INTERVAL_MS = 250L;
+    private static final long WATCH_MAX_INTERVAL_MS = 30_000L;
 
-    private static BMSClient lazyDefaultSingleton = null;
+    private static volatile BMSClient lazyDefaultSingleton = null;
 
     private final String url;
     private final String userId;
     private final SecretKeySpec keySpec;
-    private final AsyncHttpClient httpClient;
+    private final Mac macPrototype;
+    private final Transport transport;
+    private final CounterStore counterStore;
+    private final RequestScheduler requestScheduler;
+    private final HeavyHitterFilter heavyHitterFilter;
+    private volatile CounterWatcher lazyWatcher = null;
 
     /**
      * Create a new one BMSClient thread safe instance.
@@ -41,10 +59,76 @@ public class BMSClient {
      * @param httpClient        the http client to use
      */
     public BMSClient(final String billMyServicesURL, final String userId, final String secretKey, final AsyncHttpClient httpClient) {
-        this.url = billMyServicesURL;
+        this(billMyServicesURL, userId, secretKey, new AhcTransport(httpClient));
+    }
+
+    /**
+     * Create a new one BMSClient thread safe instance.
+     *
+     * @param billMyServicesURL the Bill My Service endpoint
+     * @param userId            your Bill My Service user profile Id
+     * @param secretKey         your Bill My Service secret key (Base64 encoded)
+     * @param transport         the http transport to use
+     */
+    public BMSClient(final String billMyServicesURL, final String userId, final String secretKey, final Transport transport) {
+        this(billMyServicesURL, userId, decodeSecretKey(secretKey), transport, null, null, null);
+    }
+
+    /**
+     * Create a new one BMSClient thread safe instance with an already decoded secret key.
+     *
+     * @param url               the Bill My Service endpoint
+     * @param userId            your Bill My Service user profile Id
+     * @param keySpec           your Bill My Service secret key
+     * @param transport         the http transport to use
+     * @param counterStore      may be null, the counter store to use
+     * @param requestScheduler  may be null, the in-flight requests limiter to use
+     * @param heavyHitterFilter may be null, the frequency counter posts prefilter to use
+     */
+    BMSClient(final String url, final String userId, final SecretKeySpec keySpec, final Transport transport, final CounterStore counterStore,
+              final RequestScheduler requestScheduler, final HeavyHitterFilter heavyHitterFilter) {
+        this.url = url;
         this.userId = userId;
-        this.keySpec = new SecretKeySpec(Base64.getDecoder().decode(secretKey), HMAC_ALG);
-        this.httpClient = httpClient;
+        this.keySpec = keySpec;
+        this.macPrototype = newMac(keySpec);
+        this.transport = transport;
+        this.counterStore = counterStore;
+        this.requestScheduler = requestScheduler;
+        this.heavyHitterFilter = heavyHitterFilter;
+    }
+
+    /**
+     * Return a new one client sharing this configuration but caching the read counters into the given store.
+     * Successful `readCounter` calls fill the store, successful writes invalidate the affected counters.
+     *
+     * @param counterStore the counter store to use, null to disable the counters caching
+     * @return the new client
+     */
+    public BMSClient withCounterStore(final CounterStore counterStore) {
+        return new BMSClient(url, userId, keySpec, transport, counterStore, requestScheduler, heavyHitterFilter);
+    }
+
+    /**
+     * Return a new one client sharing this configuration but limiting its in-flight requests with the given scheduler,
+     * requests over the limit wait until one in-flight request completes. Counter checks (`postCounter` and
+     * `readCounter`) use the admission lane, all other operations use the admin lane.
+     *
+     * @param requestScheduler the request scheduler to use, null to send all requests immediately
+     * @return the new client
+     */
+    public BMSClient withRequestScheduler(final RequestScheduler requestScheduler) {
+        return new BMSClient(url, userId, keySpec, transport, counterStore, requestScheduler, heavyHitterFilter);
+    }
+
+    /**
+     * Return a new one client sharing this configuration but checking the `postCounter` calls with the given
+     * prefilter, posts to counter codes clearly over their limit fail without sending any request.
+     *
+     * @param heavyHitterFilter the prefilter to use, null to send all posts
+     * @return the new client
+     */
+    public BMSClient withHeavyHitterFilter(final HeavyHitterFilter heavyHitterFilter) {
+        return new BMSClient(url, userId, keySpec, transport, counterStore, requestScheduler, heavyHitterFilter);
     }
 
     /**
@@ -53,10 +137,20 @@ public class BMSClient {
      * @return a list of counter types
      */
     public ListenableFuture<Result<CounterType[]>> listCounterTypes() {
-        return rawCall(GET, null, null, null, null, null, null, null)
-                .execute(new AsyncCompletionHandler<Result<CounterType[]>>() {
+        return listCounterTypes(null);
+    }
+
+    /**
+     * Return all your counter types, the operation is discarded (not sent) or cancelled if the deadline expires
+     *
+     * @param deadline may be null, the operation deadline
+     * @return a list of counter types
+     */
+    public ListenableFuture<Result<CounterType[]>> listCounterTypes(final Deadline deadline) {
+        return execute(RequestLane.ADMIN, deadline, () -> rawCall(GET, null, null, null, null, null, null, null),
+                new BufferedResponseHandler<Result<CounterType[]>>() {
                     @Override
-                    public Result<CounterType[]> onCompleted(Response response) throws Exception {
+                    public Result<CounterType[]> onCompleted(BufferedResponse response) throws Exception {
                         return withStatus(200, response, r -> jsonParser(r, CounterType[].class));
                     }
                 });
@@ -69,11 +163,22 @@ public class BMSClient {
      * @return true if success false otherwise
      */
     public ListenableFuture<Result<Boolean>> addCounterType(final CounterType counterType) {
-        return rawCall(PUT, counterType.getCode(), null, counterType.getName(), counterType.getValue(), counterType.getK1(), counterType.getK2(), counterType.getVersion())
-                .execute(new AsyncCompletionHandler<Result<Boolean>>() {
+        return addCounterType(counterType, null);
+    }
+
+    /**
+     * Add a new one counter type, the operation is discarded (not sent) or cancelled if the deadline expires
+     *
+     * @param counterType the counter type information
+     * @param deadline    may be null, the operation deadline
+     * @return true if success false otherwise
+     */
+    public ListenableFuture<Result<Boolean>> addCounterType(final CounterType counterType, final Deadline deadline) {
+        return execute(RequestLane.ADMIN, deadline, () -> rawCall(PUT, counterType.getCode(), null, counterType.getName(), counterType.getValue(), counterType.getK1(), counterType.getK2(), counterType.getVersion()),
+                new BufferedResponseHandler<Result<Boolean>>() {
                     @Override
-                    public Result<Boolean> onCompleted(Response response) throws Exception {
-                        return withStatus(200, response);
+                    public Result<Boolean> onCompleted(BufferedResponse response) throws Exception {
+                        return evictCounterType(counterType.getCode(), withStatus(200, response));
                     }
                 });
     }
@@ -85,10 +190,22 @@ public class BMSClient {
      * @return the readed counter type
      */
     public ListenableFuture<Result<CounterTypeAndCounters>> readCounterType(final String counterTypeCode) {
-        return rawCall(GET, counterTypeCode, null, null, null, null, null, null)
-                .execute(new AsyncCompletionHandler<Result<CounterTypeAndCounters>>() {
+        return readCounterType(counterTypeCode, null);
+    }
+
+    /**
+     * Read one counter type with all their counters, the operation is discarded (not sent) or cancelled if the
+     * deadline expires
+     *
+     * @param counterTypeCode your counter type code
+     * @param deadline        may be null, the operation deadline
+     * @return the readed counter type
+     */
+    public ListenableFuture<Result<CounterTypeAndCounters>> readCounterType(final String counterTypeCode, final Deadline deadline) {
+        return execute(RequestLane.ADMIN, deadline, () -> rawCall(GET, counterTypeCode, null, null, null, null, null, null),
+                new BufferedResponseHandler<Result<CounterTypeAndCounters>>() {
                     @Override
-                    public Result<CounterTypeAndCounters> onCompleted(Response response) throws Exception {
+                    public Result<CounterTypeAndCounters> onCompleted(BufferedResponse response) throws Exception {
                         return withStatus(200, response, r -> jsonParser(r, CounterTypeAndCounters.class));
                     }
                 });
@@ -101,11 +218,22 @@ public class BMSClient {
      * @return true if success false otherwise
      */
     public ListenableFuture<Result<Boolean>> deleteCounterType(final String counterTypeCode) {
-        return rawCall(DELETE, counterTypeCode, null, null, null, null, null, null)
-                .execute(new AsyncCompletionHandler<Result<Boolean>>() {
+        return deleteCounterType(counterTypeCode, null);
+    }
+
+    /**
+     * Delete one counter type, the operation is discarded (not sent) or cancelled if the deadline expires
+     *
+     * @param counterTypeCode your counter type code
+     * @param deadline        may be null, the operation deadline
+     * @return true if success false otherwise
+     */
+    public ListenableFuture<Result<Boolean>> deleteCounterType(final String counterTypeCode, final Deadline deadline) {
+        return execute(RequestLane.ADMIN, deadline, () -> rawCall(DELETE, counterTypeCode, null, null, null, null, null, null),
+                new BufferedResponseHandler<Result<Boolean>>() {
                     @Override
-                    public Result<Boolean> onCompleted(Response response) throws Exception {
-                        return withStatus(200, response);
+                    public Result<Boolean> onCompleted(BufferedResponse response) throws Exception {
+                        return evictCounterType(counterTypeCode, withStatus(200, response));
                     }
                 });
     }
@@ -118,15 +246,101 @@ public class BMSClient {
      * @return the readed counter
      */
     public ListenableFuture<Result<Counter>> readCounter(final String counterTypeCode, final String counterCode) {
-        return rawCall(GET, counterTypeCode, counterCode, null, null, null, null, null)
-                .execute(new AsyncCompletionHandler<Result<Counter>>() {
+        return readCounter(counterTypeCode, counterCode, null);
+    }
+
+    /**
+     * Read one counter, if not exist, the default values will be returned, the operation is discarded (not sent) or
+     * cancelled if the deadline expires
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param deadline        may be null, the operation deadline
+     * @return the readed counter
+     */
+    public ListenableFuture<Result<Counter>> readCounter(final String counterTypeCode, final String counterCode, final Deadline deadline) {
+        return readCounter(counterTypeCode, counterCode, deadline, RequestLane.ADMISSION);
+    }
+
+    /**
+     * Read one counter using one request lane (e.g. background reads use the admin lane, then they never delay the
+     * admission checks)
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param deadline        may be null, the operation deadline
+     * @param lane            the request lane
+     * @return the readed counter
+     */
+    ListenableFuture<Result<Counter>> readCounter(final String counterTypeCode, final String counterCode, final Deadline deadline, final RequestLane lane) {
+        final long writeEpoch = counterStore == null ? 0L : counterStore.writeEpoch(counterTypeCode, counterCode);
+        return execute(lane, deadline, () -> rawCall(GET, counterTypeCode, counterCode, null, null, null, null, null),
+                new BufferedResponseHandler<Result<Counter>>() {
                     @Override
-                    public Result<Counter> onCompleted(Response response) throws Exception {
-                        return withStatus(200, response, r -> jsonParser(r, Counter.class));
+                    public Result<Counter> onCompleted(BufferedResponse response) throws Exception {
+                        final Result<Counter> r = withStatus(200, response, x -> jsonParser(x, Counter.class));
+                        if (counterStore != null && r.isSuccess())
+                            counterStore.putIfUnchanged(counterTypeCode, counterCode, r.get().getValue(), r.get().getTimeRef(), writeEpoch);
+                        return r;
                     }
                 });
     }
 
+    /**
+     * Read one counter into one sink, the response is decoded as it is received without constructing the body nor any
+     * counter object. The sink is invoked (on the transport thread) before the future completes.
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param sink            the counter consumer (e.g. one reused `MutableCounter`)
+     * @return true if success false otherwise
+     */
+    public ListenableFuture<Result<Boolean>> readCounterInto(final String counterTypeCode, final String counterCode, final CounterSink sink) {
+        return readCounterInto(counterTypeCode, counterCode, sink, null);
+    }
+
+    /**
+     * Read one counter into one sink, the operation is discarded (not sent) or cancelled if the deadline expires
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param sink            the counter consumer (e.g. one reused `MutableCounter`)
+     * @param deadline        may be null, the operation deadline
+     * @return true if success false otherwise
+     */
+    public ListenableFuture<Result<Boolean>> readCounterInto(final String counterTypeCode, final String counterCode, final CounterSink sink, final Deadline deadline) {
+        final long writeEpoch = counterStore == null ? 0L : counterStore.writeEpoch(counterTypeCode, counterCode);
+        return execute(RequestLane.ADMISSION, deadline, () -> rawCall(GET, counterTypeCode, counterCode, null, null, null, null, null),
+                new CounterDecoder(sink, counterStore, counterTypeCode, counterCode, writeEpoch));
+    }
+
+    /**
+     * Read all the counters of one counter type into one sink, the response is decoded as it is received without
+     * constructing the body nor any counter object. The sink is invoked (on the transport thread) before the future
+     * completes.
+     *
+     * @param counterTypeCode your counter type code
+     * @param sink            the counters consumer
+     * @return true if success false otherwise
+     */
+    public ListenableFuture<Result<Boolean>> readCounterTypeInto(final String counterTypeCode, final CountersSink sink) {
+        return readCounterTypeInto(counterTypeCode, sink, null);
+    }
+
+    /**
+     * Read all the counters of one counter type into one sink, the operation is discarded (not sent) or cancelled if
+     * the deadline expires
+     *
+     * @param counterTypeCode your counter type code
+     * @param sink            the counters consumer
+     * @param deadline        may be null, the operation deadline
+     * @return true if success false otherwise
+     */
+    public ListenableFuture<Result<Boolean>> readCounterTypeInto(final String counterTypeCode, final CountersSink sink, final Deadline deadline) {
+        return execute(RequestLane.ADMIN, deadline, () -> rawCall(GET, counterTypeCode, null, null, null, null, null, null),
+                new CounterDecoder(sink));
+    }
+
     /**
      * Post an increment counter value
      *
@@ -136,11 +350,29 @@ public class BMSClient {
      * @return true if success false otherwise
      */
     public ListenableFuture<Result<Boolean>> postCounter(final String counterTypeCode, final String counterCode, final long valueDelta) {
-        return rawCall(POST, counterTypeCode, counterCode, null, valueDelta, null, null, null)
-                .execute(new AsyncCompletionHandler<Result<Boolean>>() {
+        return postCounter(counterTypeCode, counterCode, valueDelta, null);
+    }
+
+    /**
+     * Post an increment counter value, the operation is discarded (not sent) or cancelled if the deadline expires
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param valueDelta      the value delta
+     * @param deadline        may be null, the operation deadline
+     * @return true if success false otherwise
+     */
+    public ListenableFuture<Result<Boolean>> postCounter(final String counterTypeCode, final String counterCode, final long valueDelta, final Deadline deadline) {
+        if (heavyHitterFilter != null && heavyHitterFilter.deny(counterTypeCode, counterCode, valueDelta)) {
+            final QueuedFuture<Result<Boolean>> denied = new QueuedFuture<>();
+            denied.complete(new Failed<>("counter `%s` is over its frequency limit (denied locally)", counterCode));
+            return denied;
+        }
+        return execute(RequestLane.ADMISSION, deadline, () -> rawCall(POST, counterTypeCode, counterCode, null, valueDelta, null, null, null),
+                new BufferedResponseHandler<Result<Boolean>>() {
                     @Override
-                    public Result<Boolean> onCompleted(Response response) throws Exception {
-                        return withStatus(200, response);
+                    public Result<Boolean> onCompleted(BufferedResponse response) throws Exception {
+                        return evictCounter(counterTypeCode, counterCode, withStatus(200, response));
                     }
                 });
     }
@@ -153,22 +385,118 @@ public class BMSClient {
      * @return true if success false otherwise
      */
     public ListenableFuture<Result<Boolean>> resetCounter(final String counterTypeCode, final String counterCode) {
-        return rawCall(DELETE, counterTypeCode, counterCode, null, null, null, null, null)
-                .execute(new AsyncCompletionHandler<Result<Boolean>>() {
+        return resetCounter(counterTypeCode, counterCode, null);
+    }
+
+    /**
+     * Reset one counter, the operation is discarded (not sent) or cancelled if the deadline expires
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param deadline        may be null, the operation deadline
+     * @return true if success false otherwise
+     */
+    public ListenableFuture<Result<Boolean>> resetCounter(final String counterTypeCode, final String counterCode, final Deadline deadline) {
+        return execute(RequestLane.ADMIN, deadline, () -> rawCall(DELETE, counterTypeCode, counterCode, null, null, null, null, null),
+                new BufferedResponseHandler<Result<Boolean>>() {
                     @Override
-                    public Result<Boolean> onCompleted(Response response) throws Exception {
-                        return withStatus(200, response);
+                    public Result<Boolean> onCompleted(BufferedResponse response) throws Exception {
+                        return evictCounter(counterTypeCode, counterCode, withStatus(200, response));
                     }
                 });
     }
 
+    /**
+     * Read one counter from the counter store (see `withCounterStore`), no request is sent to the server
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param sink            receive the cached counter value and time reference
+     * @return true if the counter was cached, false otherwise
+     */
+    public boolean readCachedCounter(final String counterTypeCode, final String counterCode, final CounterSink sink) {
+        return counterStore != null && counterStore.get(counterTypeCode, counterCode, sink);
+    }
+
+    /**
+     * Watch one counter, the listener is invoked when the counter value or time reference changes. All the listeners
+     * of one counter share one unique adaptive poller (see `CounterWatcher`).
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param listener        the changes listener
+     * @return the subscription, close it to stop watching
+     */
+    public CounterWatcher.Subscription watch(final String counterTypeCode, final String counterCode, final CounterListener listener) {
+        if (lazyWatcher == null)
+            createWatcher();
+        return lazyWatcher.watch(counterTypeCode, counterCode, listener);
+    }
+
+    /**
+     * Construct the watcher, using one daemon scheduler thread.
+     */
+    private synchronized void createWatcher() {
+        if (lazyWatcher == null)
+            lazyWatcher = new CounterWatcher(this, Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "bms-watcher");
+                t.setDaemon(true);
+                return t;
+            }), WATCH_MIN_INTERVAL_MS, WATCH_MAX_INTERVAL_MS);
+    }
+
     /**
      * Return the async http client.
      *
-     * @return the async http client.
+     * @return the async http client, null if the transport is not `AhcTransport`.
      */
     public AsyncHttpClient getHttpClient() {
-        return httpClient;
+        return transport instanceof AhcTransport ? ((AhcTransport) transport).getHttpClient() : null;
+    }
+
+    /**
+     * Return the http transport.
+     *
+     * @return the http transport.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Return the counter store, may be null.
+     *
+     * @return the counter store.
+     */
+    public CounterStore getCounterStore() {
+        return counterStore;
+    }
+
+    /**
+     * Remove one cached counter if the operation (which could have changed it) was success
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param result          the operation result
+     * @return the same result
+     */
+    private Result<Boolean> evictCounter(final String counterTypeCode, final String counterCode, final Result<Boolean> result) {
+        if (counterStore != null && result.isSuccess())
+            counterStore.remove(counterTypeCode, counterCode);
+        return result;
+    }
+
+    /**
+     * Remove all cached counters of one counter type if the operation (which could have changed them) was success
+     *
+     * @param counterTypeCode your counter type code
+     * @param result          the operation result
+     * @return the same result
+     */
+    private Result<Boolean> evictCounterType(final String counterTypeCode, final Result<Boolean> result) {
+        if (counterStore != null && result.isSuccess())
+            counterStore.removeCounterType(counterTypeCode);
+        return result;
     }
 
     /**
@@ -180,10 +508,10 @@ public class BMSClient {
      * @param <T>        the success value type
      * @return the result
      */
-    private static <T> Result<T> withStatus(final int httpStatus, final Response response, final Function<Response, Result<T>> mapper) {
+    private static <T> Result<T> withStatus(final int httpStatus, final BufferedResponse response, final Function<BufferedResponse, Result<T>> mapper) {
         if (response.getStatusCode() == httpStatus)
             return mapper.apply(response);
-        return new Failed<>("expected HTTP %d but %d, response was `%s`", httpStatus, response.getStatusCode(), response.getResponseBody());
+        return new HttpFailed<>(response.getStatusCode(), "expected HTTP %d but %d, response was `%s`", httpStatus, response.getStatusCode(), response.getResponseBody());
     }
 
     /**
@@ -193,7 +521,7 @@ public class BMSClient {
      * @param response   the response
      * @return the result
      */
-    private static Result<Boolean> withStatus(final int httpStatus, final Response response) {
+    private static Result<Boolean> withStatus(final int httpStatus, final BufferedResponse response) {
         return withStatus(httpStatus, response, ignore -> new Success<>(true));
     }
 
@@ -205,7 +533,7 @@ public class BMSClient {
      * @param <T>      the deserialized type
      * @return the result
      */
-    private static <T> Result<T> jsonParser(final Response response, final Class<T> clazz) {
+    private static <T> Result<T> jsonParser(final BufferedResponse response, final Class<T> clazz) {
         try {
             return new Success<>(JsonIterator.deserialize(response.getResponseBody(), clazz));
         } catch (Exception e) {
@@ -214,12 +542,91 @@ public class BMSClient {
     }
 
     /**
-     * Since available HMAC algorithms are not thread safe, here we construct a new one, if performance is a problem,
-     * cloning, other hmac api, pooling, ... could be moved on
+     * Send the request now, or, if one request scheduler is used, when the scheduler allows it. The request is
+     * constructed (and signed) just before being sent.
+     *
+     * With one deadline, if expired while waiting, the request is dropped from its queue (one timer completes it),
+     * otherwise, the remaining time is used as request timeout, in both cases the result is `DeadlineExceeded`.
+     *
+     * @param lane     the request priority lane
+     * @param deadline may be null, the request deadline
+     * @param request  the request constructor
+     * @param handler  the response handler
+     * @param <T>      the result type
+     * @return the future result
+     */
+    private <T> ListenableFuture<Result<T>> execute(final RequestLane lane, final Deadline deadline, final Supplier<TransportRequest> request, final ResponseHandler<Result<T>> handler) {
+        final QueuedFuture<Result<T>> future = new QueuedFuture<>();
+        if (requestScheduler == null)
+            send(deadline, request, handler, future);
+        else {
+            final RequestScheduler.Pending pending = requestScheduler.submit(lane, () -> {
+                if (!send(deadline, request, handler, future))
+                    return false;
+                future.addListener(() -> requestScheduler.release(lane), Runnable::run);
+                return true;
+            });
+            if (pending != null && deadline != null && !future.isDone()) {
+                final ScheduledFuture<?> timer = DeadlineTimer.TIMER.schedule(() -> {
+                    if (pending.cancel())
+                        future.complete(new DeadlineExceeded<>());
+                }, deadline.remainingNanos(), NANOSECONDS);
+                future.addListener(() -> timer.cancel(false), Runnable::run);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Construct (sign) and send one request unless its future is already done or its deadline expired
+     *
+     * @param deadline may be null, the request deadline
+     * @param request  the request constructor
+     * @param handler  the response handler
+     * @param future   the future to complete
+     * @param <T>      the result type
+     * @return true if the request was sent, false otherwise
+     */
+    private <T> boolean send(final Deadline deadline, final Supplier<TransportRequest> request, final ResponseHandler<Result<T>> handler, final QueuedFuture<Result<T>> future) {
+        if (future.isDone())
+            return false;
+        if (deadline != null && deadline.isExpired()) {
+            future.complete(new DeadlineExceeded<>());
+            return false;
+        }
+        final CompletableFuture<Result<T>> sent;
+        try {
+            final TransportRequest rq = request.get();
+            sent = transport.send(deadline == null ? rq : rq.withTimeout(Math.max(1L, deadline.remainingMillis())), handler);
+        } catch (RuntimeException e) {
+            future.abort(e);
+            return false;
+        }
+        future.follow(sent, e -> deadline != null && e instanceof TimeoutException ? new DeadlineExceeded<>() : null);
+        return true;
+    }
+
+    /**
+     * Since available HMAC algorithms are not thread safe, here we clone the (already initialized) prototype, avoiding
+     * provider lookups and key setup for each request; if the provider cannot clone, a new one is constructed
      *
      * @return a new one Mac object
      */
     private Mac makeMac() {
+        try {
+            return (Mac) macPrototype.clone();
+        } catch (CloneNotSupportedException e) {
+            return newMac(keySpec);
+        }
+    }
+
+    /**
+     * Construct one initialized Mac object
+     *
+     * @param keySpec the secret key
+     * @return a new one Mac object
+     */
+    private static Mac newMac(final SecretKeySpec keySpec) {
         final Mac mac;
         try {
             mac = Mac.getInstance(HMAC_ALG);
@@ -230,6 +637,16 @@ public class BMSClient {
         }
     }
 
+    /**
+     * Decode one secret key
+     *
+     * @param secretKey your Bill My Service secret key (Base64 encoded)
+     * @return the secret key
+     */
+    static SecretKeySpec decodeSecretKey(final String secretKey) {
+        return new SecretKeySpec(Base64.getDecoder().decode(secretKey), HMAC_ALG);
+    }
+
     /**
      * Send a raw call to the server
      *
@@ -241,9 +658,9 @@ public class BMSClient {
      * @param k1              may be null, the counter type k1 value
      * @param k2              may be null, the counter type k2 value
      * @param counterVersion  may be null, the counter version
-     * @return the server response
+     * @return the signed request
      */
-    private BoundRequestBuilder rawCall(final HttpMethod method, final String counterTypeCode, final String counterCode, final String name, final Long value, final Long k1, final Long k2, final CounterVersion counterVersion) {
+    private TransportRequest rawCall(final HttpMethod method, final String counterTypeCode, final String counterCode, final String name, final Long value, final Long k1, final Long k2, final CounterVersion counterVersion) {
 
         // final URL
         final String URL;
@@ -261,24 +678,7 @@ public class BMSClient {
             }
         }
 
-        // HTTP method
-        final BoundRequestBuilder rq;
-        switch (method.name()) {
-            case "POST":
-                rq = httpClient.preparePost(URL);
-                break;
-            case "GET":
-                rq = httpClient.prepareGet(URL);
-                break;
-            case "DELETE":
-                rq = httpClient.prepareDelete(URL);
-                break;
-            case "PUT":
-                rq = httpClient.preparePut(URL);
-                break;
-            default:
-                throw new IllegalArgumentException(String.format("The http method `%s` is not supported", method.name()));
-        }
+        final List<String> rq = new ArrayList<>(14);
 
         final String _time = Long.toString(System.currentTimeMillis() / 1_000L);
 
@@ -291,38 +691,50 @@ public class BMSClient {
             _value = null;
         else {
             _value = Long.toString(value);
-            rq.addHeader("wsb-value", _value);
+            addHeader(rq, "wsb-value", _value);
         }
 
         if (k1 == null)
             _k1 = null;
         else {
             _k1 = Long.toString(k1);
-            rq.addHeader("wsb-k1", _k1);
+            addHeader(rq, "wsb-k1", _k1);
         }
 
         if (k2 == null)
             _k2 = null;
         else {
             _k2 = Long.toString(k2);
-            rq.addHeader("wsb-k2", _k2);
+            addHeader(rq, "wsb-k2", _k2);
         }
 
         if (counterVersion == null)
             _mode = null;
         else {
             _mode = counterVersion.toString();
-            rq.addHeader("wsb-mode", _mode);
+            addHeader(rq, "wsb-mode", _mode);
         }
 
-        rq.addHeader("wsb-time", _time);
+        addHeader(rq, "wsb-time", _time);
 
-        rq.addHeader("wsb-hmac", computeHMAC(join(userId, counterTypeCode, counterCode, name, _value, _k1, _k2, _mode, _time)));
+        addHeader(rq, "wsb-hmac", computeHMAC(join(userId, counterTypeCode, counterCode, name, _value, _k1, _k2, _mode, _time)));
 
         if (name != null)
-            rq.addHeader("wsb-name", name);
+            addHeader(rq, "wsb-name", name);
+
+        return new TransportRequest(method.name(), URL, rq.toArray(new String[rq.size()]), 0L);
+    }
 
-        return rq;
+    /**
+     * Add one header to the request headers
+     *
+     * @param headers the request headers, as name and value pairs
+     * @param name    the header name
+     * @param value   the header value
+     */
+    private static void addHeader(final List<String> headers, final String name, final String value) {
+        headers.add(name);
+        headers.add(value);
     }
 
     /**
@@ -354,13 +766,22 @@ public class BMSClient {
     private synchronized static void createSingletonDefault() {
         if (lazyDefaultSingleton == null)
             lazyDefaultSingleton = new BMSClient(
-                    getSettingValue(SETTING_NAME_URL, DEFAULT_BMS_URL),
+                    getDefaultURL(),
                     getSettingValue(SETTING_NAME_USERID),
                     getSettingValue(SETTING_NAME_SECRETKEY),
                     new DefaultAsyncHttpClient()
             );
     }
 
+    /**
+     * The configured Bill My Services endpoint (see `getDefault`).
+     *
+     * @return the configured endpoint
+     */
+    static String getDefaultURL() {
+        return getSettingValue(SETTING_NAME_URL, DEFAULT_BMS_URL);
+    }
+
     /**
      * Try to get one setting value from system properties, if not found, try to get it from the environment variables,
      * if not found, return the default value.
@@ -389,7 +810,7 @@ public class BMSClient {
      * @return the configured value
      * @throws IllegalArgumentException if value not found
      */
-    private static String getSettingValue(final String key) {
+    static String getSettingValue(final String key) {
         final String value = getSettingValue(key, null);
         if (value == null)
             throw new IllegalArgumentException(String.format("Bill My Services configuration error, no settings found for the `%s` value", key));
@@ -409,4 +830,19 @@ public class BMSClient {
                 s.append(x);
         return s.toString();
     }
+
+    /**
+     * Timer dropping the queued requests whose deadline expires, one daemon thread created the first time it is used
+     */
+    private static final class DeadlineTimer {
+        private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread t = new Thread(r, "bms-deadlines");
+            t.setDaemon(true);
+            return t;
+        });
+
+        static {
+            TIMER.setRemoveOnCancelPolicy(true);
+        }
+    }
 }
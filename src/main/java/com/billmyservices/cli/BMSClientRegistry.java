@@ -0,0 +1,168 @@
+package com.billmyservices.cli;
+
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe registry of Bill My Service clients, one for each tenant (user profile), all of them sharing one unique
+ * http transport (then one unique event loop and connection pool).
+ * <p>
+ * Each tenant client only holds its signing context (user Id, decoded secret key and one initialized Mac prototype)
+ * and its own request scheduler, then thousands of tenants could be served from one JVM and one busy tenant cannot take
+ * more than `maxInFlightPerTenant` connections for its admission requests plus `max(1, maxInFlightPerTenant / 4)` for
+ * its admin requests (see `RequestLane`). All the tenant schedulers share one in-flight budget (no larger than the
+ * connection pool), served round-robin across the tenants, then requests wait in their tenant queue instead of failing
+ * when the pool is exhausted.
+ */
+public final class BMSClientRegistry implements Closeable {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 1_024;
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_TENANT = 32;
+
+    private final String url;
+    private final Transport transport;
+    private final boolean ownedTransport;
+    private final int maxInFlightPerTenant;
+    private final RequestBudget budget;
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new one registry using the configured endpoint (see `BMSClient.getDefault`) and its own http client.
+     */
+    public BMSClientRegistry() {
+        this(BMSClient.getDefaultURL(), DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_IN_FLIGHT_PER_TENANT);
+    }
+
+    /**
+     * Create a new one registry with its own http client, closed when the registry is closed.
+     *
+     * @param billMyServicesURL    the Bill My Service endpoint
+     * @param maxConnections       the maximum number of connections shared by all tenants
+     * @param maxInFlightPerTenant the maximum number of in-flight admission requests for each tenant (admin requests
+     *                             add one quarter)
+     */
+    public BMSClientRegistry(final String billMyServicesURL, final int maxConnections, final int maxInFlightPerTenant) {
+        this(billMyServicesURL, new AhcTransport(new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder()
+                .setMaxConnections(maxConnections)
+                .setThreadPoolName("bms-shared")
+                .build())), true, maxConnections, maxInFlightPerTenant);
+    }
+
+    /**
+     * Create a new one registry using the given http client, not closed when the registry is closed.
+     *
+     * @param billMyServicesURL    the Bill My Service endpoint
+     * @param httpClient           the http client shared by all tenants
+     * @param maxInFlight          the maximum number of in-flight requests of all tenants (at most the http client
+     *                             maximum number of connections)
+     * @param maxInFlightPerTenant the maximum number of in-flight admission requests for each tenant (admin requests
+     *                             add one quarter)
+     */
+    public BMSClientRegistry(final String billMyServicesURL, final AsyncHttpClient httpClient, final int maxInFlight, final int maxInFlightPerTenant) {
+        this(billMyServicesURL, new AhcTransport(httpClient), false, maxInFlight, maxInFlightPerTenant);
+    }
+
+    /**
+     * Create a new one registry using the given transport, not closed when the registry is closed.
+     *
+     * @param billMyServicesURL    the Bill My Service endpoint
+     * @param transport            the http transport shared by all tenants
+     * @param maxInFlight          the maximum number of in-flight requests of all tenants (at most the transport
+     *                             maximum number of connections)
+     * @param maxInFlightPerTenant the maximum number of in-flight admission requests for each tenant (admin requests
+     *                             add one quarter)
+     */
+    public BMSClientRegistry(final String billMyServicesURL, final Transport transport, final int maxInFlight, final int maxInFlightPerTenant) {
+        this(billMyServicesURL, transport, false, maxInFlight, maxInFlightPerTenant);
+    }
+
+    private BMSClientRegistry(final String url, final Transport transport, final boolean ownedTransport, final int maxInFlight, final int maxInFlightPerTenant) {
+        if (maxInFlight < 1 || maxInFlightPerTenant < 1)
+            throw new IllegalArgumentException("`maxInFlight` and `maxInFlightPerTenant` must be positive");
+        this.url = url;
+        this.transport = transport;
+        this.ownedTransport = ownedTransport;
+        this.maxInFlightPerTenant = maxInFlightPerTenant;
+        this.budget = new RequestBudget(maxInFlight);
+    }
+
+    /**
+     * Return the client of one tenant, created the first time. If the secret key changed, a new client is created.
+     *
+     * @param userId    the tenant Bill My Service user profile Id
+     * @param secretKey the tenant Bill My Service secret key (Base64 encoded)
+     * @return the tenant client
+     */
+    public BMSClient forTenant(final String userId, final String secretKey) {
+        final Tenant tenant = tenants.get(userId);
+        if (tenant != null && tenant.secretKey.equals(secretKey))
+            return tenant.client;
+        return tenants.compute(userId, (k, t) -> t != null && t.secretKey.equals(secretKey) ? t : new Tenant(secretKey, new BMSClient(
+                url, userId, BMSClient.decodeSecretKey(secretKey), transport, null, new RequestScheduler(maxInFlightPerTenant, Math.max(1, maxInFlightPerTenant / 4), budget), null))).client;
+    }
+
+    /**
+     * Forget one tenant, its in-flight requests are not affected
+     *
+     * @param userId the tenant Bill My Service user profile Id
+     * @return true if the tenant was registered, false otherwise
+     */
+    public boolean remove(final String userId) {
+        return tenants.remove(userId) != null;
+    }
+
+    /**
+     * The current number of registered tenants
+     *
+     * @return the current number of registered tenants
+     */
+    public int size() {
+        return tenants.size();
+    }
+
+    /**
+     * Return the in-flight budget shared by all tenants.
+     *
+     * @return the shared in-flight budget
+     */
+    public RequestBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Return the shared http transport.
+     *
+     * @return the shared http transport.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Forget all tenants and, if it was created by this registry, close the shared transport
+     *
+     * @throws IOException if the transport cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        tenants.clear();
+        if (ownedTransport)
+            transport.close();
+    }
+
+    private static final class Tenant {
+        private final String secretKey;
+        private final BMSClient client;
+
+        Tenant(final String secretKey, final BMSClient client) {
+            this.secretKey = secretKey;
+            this.client = client;
+        }
+    }
+}
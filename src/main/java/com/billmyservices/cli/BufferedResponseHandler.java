@@ -0,0 +1,72 @@
+package com.billmyservices.cli;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Response handler accumulating the whole body before handling the response
+ *
+ * @param <T> the handler result type
+ */
+abstract class BufferedResponseHandler<T> implements ResponseHandler<T> {
+
+    private int statusCode = 0;
+    private byte[] body = new byte[256];
+    private int length = 0;
+
+    /**
+     * One new response starts, retried (replayed) requests start again, then the previous body is discarded
+     *
+     * @param statusCode the response http status
+     */
+    @Override
+    public void onStatus(final int statusCode) {
+        this.statusCode = statusCode;
+        this.length = 0;
+    }
+
+    @Override
+    public void onBodyPart(final ByteBuffer bodyPart) {
+        final int n = bodyPart.remaining();
+        if (length + n > body.length)
+            body = Arrays.copyOf(body, Math.max(length + n, 2 * body.length));
+        bodyPart.get(body, length, n);
+        length += n;
+    }
+
+    @Override
+    public T onCompleted() throws Exception {
+        return onCompleted(new BufferedResponse(statusCode, body, length));
+    }
+
+    /**
+     * The response was fully received
+     *
+     * @param response the response
+     * @return the handler result
+     * @throws Exception if the response cannot be handled
+     */
+    abstract T onCompleted(BufferedResponse response) throws Exception;
+}
+
+final class BufferedResponse {
+
+    private final int statusCode;
+    private final byte[] body;
+    private final int length;
+
+    BufferedResponse(final int statusCode, final byte[] body, final int length) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.length = length;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getResponseBody() {
+        return new String(body, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,391 @@
+package com.billmyservices.cli;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming counters decoder, parses the JSON response body parts as they are received and pushes the counters into
+ * one sink, neither the body nor any counter object is constructed.
+ * <p>
+ * Decodes one counter (`{"code":..,"timeRef":..,"value":..}`) or the counters of one counter type
+ * (`{"counterType":{..},"counters":[{..},..]}`). Only the `value`, `timeRef` and `code` fields are read, any other
+ * JSON value is skipped.
+ */
+final class CounterDecoder implements ResponseHandler<Result<Boolean>> {
+
+    private static final Result<Boolean> DECODED = new Success<>(true);
+    private static final int MAX_DEPTH = 64;
+
+    private static final int KEY_OTHER = 0;
+    private static final int KEY_VALUE = 1;
+    private static final int KEY_TIMEREF = 2;
+    private static final int KEY_CODE = 3;
+    private static final int KEY_COUNTERS = 4;
+    // the known keys, `KEYS[k - 1]` is the key `k`
+    private static final String[] KEYS = {"value", "timeRef", "code", "counters"};
+    private static final int ALL_KEYS = (1 << KEYS.length) - 1;
+
+    private final CounterSink counterSink;
+    private final CountersSink countersSink;
+    private final CounterStore counterStore;
+    private final String counterTypeCode;
+    private final String counterCode;
+    private final long writeEpoch;
+
+    private int statusCode = 0;
+    private byte[] errorBody = null;
+    private int errorLength = 0;
+
+    // structure, one bit for each open level (1 object, 0 array), only the current level key is kept
+    private long objects = 0L;
+    private int depth = 0;
+    private int key = KEY_OTHER;
+    private boolean expectingKey = false;
+    private int countersDepth = -1;
+    private boolean decoded = false;
+    private boolean overflowed = false;
+
+    // scalar tokens
+    private boolean inString = false;
+    private boolean matchingKey = false;
+    private int keyCandidates = 0;
+    private int keyLength = 0;
+    private boolean capturingCode = false;
+    private int escape = 0; // 0 none, 1 after `\`, 2..5 reading `\\u` hex digits
+    private int unicode = 0;
+    private int utf8Pending = 0;
+    private int utf8CodePoint = 0;
+    private boolean inNumber = false;
+    private boolean negative = false;
+    private boolean integral = true;
+    private boolean outOfRange = false;
+    private long number = 0L; // accumulated negatively, as `Long.parseLong`, to reach `Long.MIN_VALUE`
+
+    // current counter, the code is only decoded for one `CountersSink`
+    private long value = 0L;
+    private long timeRef = 0L;
+    private final StringBuilder code;
+
+    /**
+     * Decode one counter
+     *
+     * @param counterSink the counter consumer
+     */
+    CounterDecoder(final CounterSink counterSink) {
+        this(counterSink, null, null, null, 0L);
+    }
+
+    /**
+     * Decode one counter, caching it too (see `CounterStore.putIfUnchanged`)
+     *
+     * @param counterSink     the counter consumer
+     * @param counterStore    may be null, the counter store
+     * @param counterTypeCode the counter type code
+     * @param counterCode     the counter code
+     * @param writeEpoch      the counter write epoch taken before sending the request
+     */
+    CounterDecoder(final CounterSink counterSink, final CounterStore counterStore, final String counterTypeCode, final String counterCode,
+                   final long writeEpoch) {
+        this.counterSink = counterSink;
+        this.countersSink = null;
+        this.counterStore = counterStore;
+        this.counterTypeCode = counterTypeCode;
+        this.counterCode = counterCode;
+        this.writeEpoch = writeEpoch;
+        this.code = null;
+    }
+
+    /**
+     * Decode the counters of one counter type
+     *
+     * @param countersSink the counters consumer
+     */
+    CounterDecoder(final CountersSink countersSink) {
+        this.counterSink = null;
+        this.countersSink = countersSink;
+        this.counterStore = null;
+        this.counterTypeCode = null;
+        this.counterCode = null;
+        this.writeEpoch = 0L;
+        this.code = new StringBuilder(32);
+    }
+
+    /**
+     * One new response starts, retried (replayed) requests start again, then the decoder state is reset (the counters
+     * already pushed into one `CountersSink` are not taken back)
+     *
+     * @param statusCode the response http status
+     */
+    @Override
+    public void onStatus(final int statusCode) {
+        this.statusCode = statusCode;
+        errorLength = 0;
+        objects = 0L;
+        depth = 0;
+        key = KEY_OTHER;
+        expectingKey = false;
+        countersDepth = -1;
+        decoded = false;
+        overflowed = false;
+        inString = false;
+        escape = 0;
+        utf8Pending = 0;
+        inNumber = false;
+    }
+
+    @Override
+    public void onBodyPart(final ByteBuffer bodyPart) {
+        if (statusCode != 200) {
+            final int n = bodyPart.remaining();
+            if (errorBody == null)
+                errorBody = new byte[Math.max(256, n)];
+            else if (errorLength + n > errorBody.length)
+                errorBody = Arrays.copyOf(errorBody, Math.max(errorLength + n, 2 * errorBody.length));
+            bodyPart.get(errorBody, errorLength, n);
+            errorLength += n;
+            return;
+        }
+        while (bodyPart.hasRemaining())
+            accept(bodyPart.get());
+    }
+
+    @Override
+    public Result<Boolean> onCompleted() {
+        if (statusCode != 200)
+            return new HttpFailed<>(statusCode, "expected HTTP 200 but %d, response was `%s`", statusCode,
+                    errorBody == null ? "" : new String(errorBody, 0, errorLength, StandardCharsets.UTF_8));
+        if (overflowed)
+            return new Failed<>("cannot decode the counters, one value is out of the long range");
+        if (!decoded || depth != 0 || inString)
+            return new Failed<>("cannot decode the counters, unexpected response body");
+        return DECODED;
+    }
+
+    private void accept(final byte b) {
+        if (inString) {
+            acceptStringByte(b);
+            return;
+        }
+        if (inNumber) {
+            if ((b >= '0' && b <= '9') && integral) {
+                final int digit = b - '0';
+                final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+                if (number < limit / 10L || number * 10L < limit + digit)
+                    outOfRange = true;
+                else
+                    number = number * 10L - digit;
+                return;
+            }
+            if (b >= '0' && b <= '9' || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-') {
+                integral = false;
+                return;
+            }
+            endNumber();
+        }
+        switch (b) {
+            case '"':
+                startString();
+                break;
+            case '{':
+                push(true);
+                expectingKey = true;
+                break;
+            case '[':
+                final boolean counters = countersSink != null && depth == 1 && key == KEY_COUNTERS;
+                push(false);
+                if (counters)
+                    countersDepth = depth;
+                break;
+            case '}':
+            case ']':
+                pop();
+                break;
+            case ':':
+                expectingKey = false;
+                break;
+            case ',':
+                expectingKey = depth > 0 && isObject(depth - 1);
+                break;
+            case '-':
+                startNumber(true);
+                break;
+            default:
+                if (b >= '0' && b <= '9') {
+                    startNumber(false);
+                    number = '0' - b;
+                }
+                // whitespace and the true, false and null literals are skipped
+        }
+    }
+
+    private boolean isObject(final int level) {
+        return (objects & 1L << level) != 0L;
+    }
+
+    private void push(final boolean object) {
+        if (depth == MAX_DEPTH)
+            throw new IllegalStateException("too deep JSON response");
+        if (object)
+            objects |= 1L << depth;
+        else
+            objects &= ~(1L << depth);
+        key = KEY_OTHER;
+        depth++;
+        if (object && isCounterDepth()) {
+            value = 0L;
+            timeRef = 0L;
+            if (code != null)
+                code.setLength(0);
+        }
+    }
+
+    private void pop() {
+        if (depth == 0)
+            return;
+        if (isObject(depth - 1) && isCounterDepth() && !overflowed) {
+            if (counterSink == null)
+                countersSink.accept(code, value, timeRef);
+            else {
+                if (counterStore != null)
+                    counterStore.putIfUnchanged(counterTypeCode, counterCode, value, timeRef, writeEpoch);
+                counterSink.accept(value, timeRef);
+            }
+        }
+        if (depth == countersDepth)
+            countersDepth = -1;
+        depth--;
+        key = KEY_OTHER;
+        expectingKey = false;
+        if (depth == 0)
+            decoded = true;
+    }
+
+    /**
+     * Determine if the current object is one counter
+     */
+    private boolean isCounterDepth() {
+        return counterSink != null ? depth == 1 : countersDepth > 0 && depth == countersDepth + 1;
+    }
+
+    private void startNumber(final boolean negative) {
+        inNumber = true;
+        this.negative = negative;
+        integral = true;
+        outOfRange = false;
+        number = 0L;
+    }
+
+    private void endNumber() {
+        inNumber = false;
+        if (!integral || depth == 0 || !isCounterDepth() || key != KEY_VALUE && key != KEY_TIMEREF)
+            return;
+        // one counter is never pushed with a wrapped around value, the whole decode fails
+        if (outOfRange) {
+            overflowed = true;
+            return;
+        }
+        final long x = negative ? number : -number;
+        if (key == KEY_VALUE)
+            value = x;
+        else if (key == KEY_TIMEREF)
+            timeRef = x;
+    }
+
+    /**
+     * Keys are matched as they are received against the known keys and only the counter codes are decoded (for one
+     * `CountersSink`), any other string is skipped
+     */
+    private void startString() {
+        inString = true;
+        matchingKey = expectingKey && depth > 0;
+        keyCandidates = ALL_KEYS;
+        keyLength = 0;
+        capturingCode = !expectingKey && code != null && key == KEY_CODE && depth > 0 && isCounterDepth();
+        if (capturingCode)
+            code.setLength(0);
+    }
+
+    private void acceptStringByte(final byte b) {
+        if (escape == 1) {
+            escape = 0;
+            switch (b) {
+                case 'b':
+                    acceptChar('\b');
+                    break;
+                case 'f':
+                    acceptChar('\f');
+                    break;
+                case 'n':
+                    acceptChar('\n');
+                    break;
+                case 'r':
+                    acceptChar('\r');
+                    break;
+                case 't':
+                    acceptChar('\t');
+                    break;
+                case 'u':
+                    escape = 2;
+                    unicode = 0;
+                    break;
+                default:
+                    acceptChar(b);
+            }
+            return;
+        }
+        if (escape > 1) {
+            unicode = unicode << 4 | Character.digit((char) b, 16);
+            if (++escape == 6) {
+                escape = 0;
+                acceptChar(unicode);
+            }
+            return;
+        }
+        if (utf8Pending > 0) {
+            utf8CodePoint = utf8CodePoint << 6 | (b & 0x3F);
+            if (--utf8Pending == 0)
+                acceptChar(utf8CodePoint);
+            return;
+        }
+        if (b == '"')
+            endString();
+        else if (b == '\\')
+            escape = 1;
+        else if (b >= 0)
+            acceptChar(b);
+        else if ((b & 0xE0) == 0xC0) {
+            utf8Pending = 1;
+            utf8CodePoint = b & 0x1F;
+        } else if ((b & 0xF0) == 0xE0) {
+            utf8Pending = 2;
+            utf8CodePoint = b & 0x0F;
+        } else {
+            utf8Pending = 3;
+            utf8CodePoint = b & 0x07;
+        }
+    }
+
+    /**
+     * One decoded string character (code point)
+     */
+    private void acceptChar(final int c) {
+        if (matchingKey) {
+            for (int k = 0; k < KEYS.length; k++)
+                if (keyLength >= KEYS[k].length() || KEYS[k].charAt(keyLength) != c)
+                    keyCandidates &= ~(1 << k);
+            keyLength++;
+        } else if (capturingCode)
+            code.appendCodePoint(c);
+    }
+
+    private void endString() {
+        inString = false;
+        if (!matchingKey)
+            return;
+        key = KEY_OTHER;
+        for (int k = 0; k < KEYS.length; k++)
+            if ((keyCandidates & 1 << k) != 0 && KEYS[k].length() == keyLength)
+                key = k + 1;
+    }
+}
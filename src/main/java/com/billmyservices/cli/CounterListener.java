@@ -0,0 +1,16 @@
+package com.billmyservices.cli;
+
+/**
+ * Receive the changes of one watched counter
+ */
+@FunctionalInterface
+public interface CounterListener {
+
+    /**
+     * Invoked when the counter value or time reference changed
+     *
+     * @param counterTypeCode your counter type code
+     * @param counter         the new counter state
+     */
+    void onChange(String counterTypeCode, Counter counter);
+}
@@ -0,0 +1,16 @@
+package com.billmyservices.cli;
+
+/**
+ * Receive one counter state as primitive values, no object is needed to move it
+ */
+@FunctionalInterface
+public interface CounterSink {
+
+    /**
+     * Consume one counter state
+     *
+     * @param value   the current counter value
+     * @param timeRef the UNIX EPOCH time
+     */
+    void accept(long value, long timeRef);
+}
@@ -0,0 +1,342 @@
+package com.billmyservices.cli;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable columnar snapshot of the counters of one counter type: one sorted codes dictionary and two primitive
+ * columns, the values and the time references, then scanning them does not walk one object for each counter.
+ * <p>
+ * Counters are addressed by their index (in code order), queries over large snapshots run in parallel.
+ */
+public final class CounterSnapshot {
+
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    private final CounterType counterType;
+    private final String[] codes;
+    private final long[] values;
+    private final long[] timeRefs;
+
+    /**
+     * Create a new one snapshot, the columns are not copied.
+     *
+     * @param counterType the counter type
+     * @param codes       the counter codes, sorted and unique
+     * @param values      the counter values
+     * @param timeRefs    the counter time references
+     */
+    CounterSnapshot(final CounterType counterType, final String[] codes, final long[] values, final long[] timeRefs) {
+        if (codes.length != values.length || codes.length != timeRefs.length)
+            throw new IllegalArgumentException("the columns must have the same length");
+        this.counterType = counterType;
+        this.codes = codes;
+        this.values = values;
+        this.timeRefs = timeRefs;
+    }
+
+    /**
+     * Create a new one snapshot from one read counter type, if one code is repeated, the last counter is kept (as
+     * `Builder.build`)
+     *
+     * @param counterTypeAndCounters the counter type and its counters
+     * @return the snapshot
+     */
+    public static CounterSnapshot of(final CounterTypeAndCounters counterTypeAndCounters) {
+        final Builder builder = new Builder(counterTypeAndCounters.getCounterType());
+        if (counterTypeAndCounters.getCounters() != null)
+            for (final Counter counter : counterTypeAndCounters.getCounters())
+                builder.accept(counter.getCode(), counter.getValue(), counter.getTimeRef());
+        return builder.build();
+    }
+
+    /**
+     * Create a new one snapshot builder, one counters sink, then one snapshot can be filled straight from
+     * `BMSClient.readCounterTypeInto` without constructing the `Counter[]` objects
+     *
+     * @param counterType the counter type
+     * @return the snapshot builder
+     */
+    public static Builder builder(final CounterType counterType) {
+        return new Builder(counterType);
+    }
+
+    /**
+     * The counter type
+     *
+     * @return the counter type
+     */
+    public CounterType getCounterType() {
+        return counterType;
+    }
+
+    /**
+     * The number of counters
+     *
+     * @return the number of counters
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * The code of one counter
+     *
+     * @param index the counter index
+     * @return the counter code
+     */
+    public String getCode(final int index) {
+        return codes[index];
+    }
+
+    /**
+     * The value of one counter
+     *
+     * @param index the counter index
+     * @return the counter value
+     */
+    public long getValue(final int index) {
+        return values[index];
+    }
+
+    /**
+     * The time reference (UNIX EPOCH) of one counter
+     *
+     * @param index the counter index
+     * @return the counter time reference
+     */
+    public long getTimeRef(final int index) {
+        return timeRefs[index];
+    }
+
+    /**
+     * Find one counter by code
+     *
+     * @param counterCode the counter code
+     * @return the counter index, or a negative value if not found
+     */
+    public int indexOf(final String counterCode) {
+        return Arrays.binarySearch(codes, counterCode);
+    }
+
+    /**
+     * The sum of all the counter values
+     *
+     * @return the sum of all the counter values
+     */
+    public long sum() {
+        return indexes().mapToLong(i -> values[i]).sum();
+    }
+
+    /**
+     * The indexes of the counters with one value within one range, in code order
+     *
+     * @param minValue the minimum value (inclusive)
+     * @param maxValue the maximum value (inclusive)
+     * @return the counter indexes
+     */
+    public int[] filter(final long minValue, final long maxValue) {
+        return indexes().filter(i -> values[i] >= minValue && values[i] <= maxValue).toArray();
+    }
+
+    /**
+     * The indexes of the counters with the greatest values, the greatest first
+     *
+     * @param n the maximum number of counters
+     * @return the counter indexes
+     */
+    public int[] top(final int n) {
+        if (n < 1 || codes.length == 0)
+            return new int[0];
+        final int chunks = (codes.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final IntStream cs = IntStream.range(0, chunks);
+        final int[] candidates = (codes.length < PARALLEL_THRESHOLD ? cs : cs.parallel())
+                .flatMap(c -> Arrays.stream(top(n, c * CHUNK_SIZE, Math.min(codes.length, (c + 1) * CHUNK_SIZE))))
+                .toArray();
+        return top(n, candidates);
+    }
+
+    /**
+     * The value changes since one previous snapshot of the same counter type, one counter missing in one snapshot is
+     * taken at the counter type default value. Only changed counters are included.
+     *
+     * @param previous the previous snapshot
+     * @return one snapshot whose values are the changes and whose time references are the current ones (or the
+     * previous ones, for counters no longer present)
+     */
+    public CounterSnapshot diff(final CounterSnapshot previous) {
+        final long defaultValue = counterType == null ? 0L : counterType.getValue();
+        final int capacity = codes.length + previous.codes.length;
+        final String[] dc = new String[capacity];
+        final long[] dv = new long[capacity];
+        final long[] dt = new long[capacity];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < codes.length || j < previous.codes.length) {
+            final int cmp = i == codes.length ? 1 : j == previous.codes.length ? -1 : codes[i].compareTo(previous.codes[j]);
+            final long delta;
+            if (cmp < 0) {
+                delta = values[i] - defaultValue;
+                dc[k] = codes[i];
+                dt[k] = timeRefs[i++];
+            } else if (cmp > 0) {
+                delta = defaultValue - previous.values[j];
+                dc[k] = previous.codes[j];
+                dt[k] = previous.timeRefs[j++];
+            } else {
+                delta = values[i] - previous.values[j++];
+                dc[k] = codes[i];
+                dt[k] = timeRefs[i++];
+            }
+            if (delta != 0L)
+                dv[k++] = delta;
+        }
+        return new CounterSnapshot(counterType, Arrays.copyOf(dc, k), Arrays.copyOf(dv, k), Arrays.copyOf(dt, k));
+    }
+
+    private IntStream indexes() {
+        final IntStream xs = IntStream.range(0, codes.length);
+        return codes.length < PARALLEL_THRESHOLD ? xs : xs.parallel();
+    }
+
+    private int[] top(final int n, final int from, final int to) {
+        final int[] xs = new int[to - from];
+        for (int i = from; i < to; i++)
+            xs[i - from] = i;
+        return top(n, xs);
+    }
+
+    /**
+     * Select the greatest values using one bounded min-heap of indexes
+     *
+     * @param n          the maximum number of counters
+     * @param candidates the candidate counter indexes
+     * @return the selected counter indexes, the greatest first
+     */
+    private int[] top(final int n, final int[] candidates) {
+        final int[] heap = new int[Math.min(n, candidates.length)];
+        int size = 0;
+        for (final int x : candidates)
+            if (size < heap.length) {
+                heap[size] = x;
+                siftUp(heap, size++);
+            } else if (greater(x, heap[0])) {
+                heap[0] = x;
+                siftDown(heap, size);
+            }
+        // heap sort, the smallest is moved to the end
+        for (int last = size - 1; last > 0; last--) {
+            final int t = heap[0];
+            heap[0] = heap[last];
+            heap[last] = t;
+            siftDown(heap, last);
+        }
+        return heap;
+    }
+
+    private boolean greater(final int a, final int b) {
+        return values[a] > values[b] || (values[a] == values[b] && a < b);
+    }
+
+    private void siftUp(final int[] heap, int i) {
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (!greater(heap[parent], heap[i]))
+                return;
+            final int t = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = t;
+            i = parent;
+        }
+    }
+
+    private void siftDown(final int[] heap, final int size) {
+        int i = 0;
+        while (true) {
+            final int l = 2 * i + 1;
+            final int r = l + 1;
+            int smallest = i;
+            if (l < size && greater(heap[smallest], heap[l]))
+                smallest = l;
+            if (r < size && greater(heap[smallest], heap[r]))
+                smallest = r;
+            if (smallest == i)
+                return;
+            final int t = heap[smallest];
+            heap[smallest] = heap[i];
+            heap[i] = t;
+            i = smallest;
+        }
+    }
+
+    /**
+     * Snapshot builder, accumulates the received counters into growing columns, sorted once when the snapshot is
+     * built. Not thread safe.
+     */
+    public static final class Builder implements CountersSink {
+        private final CounterType counterType;
+        private String[] codes = new String[64];
+        private long[] values = new long[64];
+        private long[] timeRefs = new long[64];
+        private int size = 0;
+
+        private Builder(final CounterType counterType) {
+            this.counterType = counterType;
+        }
+
+        @Override
+        public void accept(final CharSequence code, final long value, final long timeRef) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, 2 * size);
+                values = Arrays.copyOf(values, 2 * size);
+                timeRefs = Arrays.copyOf(timeRefs, 2 * size);
+            }
+            codes[size] = code.toString();
+            values[size] = value;
+            timeRefs[size] = timeRef;
+            size++;
+        }
+
+        /**
+         * Build the snapshot, the columns are sorted by code and, if one code was received more than once, the last
+         * received counter is kept
+         *
+         * @return the snapshot
+         */
+        public CounterSnapshot build() {
+            final String[] cs = Arrays.copyOf(codes, size);
+            final long[] vs = Arrays.copyOf(values, size);
+            final long[] ts = Arrays.copyOf(timeRefs, size);
+            if (sortedAndUnique(cs))
+                return new CounterSnapshot(counterType, cs, vs, ts);
+            // stable sort, then the last received of equal codes is the last one
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++)
+                order[i] = i;
+            Arrays.sort(order, Comparator.comparing(i -> cs[i]));
+            final String[] dc = new String[size];
+            final long[] dv = new long[size];
+            final long[] dt = new long[size];
+            int k = 0;
+            for (int i = 0; i < size; i++) {
+                final int x = order[i];
+                if (i + 1 < size && cs[order[i + 1]].equals(cs[x]))
+                    continue;
+                dc[k] = cs[x];
+                dv[k] = vs[x];
+                dt[k++] = ts[x];
+            }
+            return new CounterSnapshot(counterType, Arrays.copyOf(dc, k), Arrays.copyOf(dv, k), Arrays.copyOf(dt, k));
+        }
+
+        private static boolean sortedAndUnique(final String[] codes) {
+            for (int i = 1; i < codes.length; i++)
+                if (codes[i - 1].compareTo(codes[i]) >= 0)
+                    return false;
+            return true;
+        }
+    }
+}
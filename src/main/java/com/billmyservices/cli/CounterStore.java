@@ -0,0 +1,456 @@
+package com.billmyservices.cli;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread safe, bounded, primitive counter store.
+ * <p>
+ * Counters are not stored as objects, each one entry is one slot in a few open addressing (linear probing) primitive
+ * arrays: the 64 bit hash of the (counter type code, counter code) pair, the 64 bit hash of the counter type code, the
+ * counter value, the counter time reference and one CLOCK reference byte (about 44 bytes per entry at the maximum load
+ * factor), then, millions of counters can be cached without object headers, strings nor boxing.
+ * <p>
+ * The table is split into independent stripes, writes lock only their own stripe and reads are optimistic (lock free
+ * unless one write into the same stripe happened while reading). When one stripe is full, one not recently read entry
+ * is evicted using the CLOCK (second chance) policy.
+ * <p>
+ * Keys are hashed, not stored, two different keys with the same 64 bit hash will share one entry, with `n` counters the
+ * collision probability is about `n^2 / 2^65` (about 2.7e-6 for ten millions of counters).
+ * <p>
+ * Read responses could arrive after one concurrent write invalidated (removed) their counter, then caching them would
+ * keep one stale value. Each removal advances one write epoch (hashed by key into a few slots of each stripe), readers
+ * take the epoch before sending the read and `putIfUnchanged` drops the response if the epoch changed meanwhile.
+ */
+public final class CounterStore {
+
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int MIN_STRIPE_SLOTS = 8;
+    private static final int EPOCH_SLOTS = 64;
+    private static final long EMPTY = 0L;
+    private static final long EMPTY_REPLACEMENT = 0x9E3779B97F4A7C15L;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int capacity;
+
+    /**
+     * Create a new one counter store with the default concurrency level.
+     *
+     * @param capacity the maximum number of counters to hold
+     */
+    public CounterStore(final int capacity) {
+        this(capacity, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Create a new one counter store.
+     *
+     * @param capacity    the maximum number of counters to hold
+     * @param concurrency the expected number of concurrent writers (rounded up to the next power of two)
+     */
+    public CounterStore(final int capacity, final int concurrency) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("`capacity` must be positive");
+        if (concurrency < 1)
+            throw new IllegalArgumentException("`concurrency` must be positive");
+        final int nstripes = Math.min(nextPowerOfTwo(concurrency), nextPowerOfTwo(Math.max(1, capacity / MIN_STRIPE_SLOTS)));
+        final int perStripe = (capacity + nstripes - 1) / nstripes;
+        this.stripes = new Stripe[nstripes];
+        for (int i = 0; i < nstripes; i++)
+            this.stripes[i] = new Stripe(perStripe);
+        this.stripeMask = nstripes - 1;
+        this.capacity = perStripe * nstripes;
+    }
+
+    /**
+     * Read one cached counter
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param sink            receive the counter value and time reference if found
+     * @return true if the counter was found, false otherwise
+     */
+    public boolean get(final String counterTypeCode, final String counterCode, final CounterSink sink) {
+        final long key = key(hash(counterTypeCode), hash(counterCode));
+        return stripe(key).get(key, sink);
+    }
+
+    /**
+     * Insert or replace one counter, if the store is full, one not recently used counter is evicted
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param value           the counter value
+     * @param timeRef         the counter time reference
+     */
+    public void put(final String counterTypeCode, final String counterCode, final long value, final long timeRef) {
+        final long type = hash(counterTypeCode);
+        final long key = key(type, hash(counterCode));
+        stripe(key).put(key, type, value, timeRef);
+    }
+
+    /**
+     * The write epoch of one counter, to be taken before reading it from the service (see `putIfUnchanged`)
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @return the current write epoch
+     */
+    public long writeEpoch(final String counterTypeCode, final String counterCode) {
+        final long key = key(hash(counterTypeCode), hash(counterCode));
+        return stripe(key).epoch(key);
+    }
+
+    /**
+     * Insert or replace one counter read from the service, unless the counter was removed (e.g. one post changed it)
+     * since its write epoch was taken, then the read value could be stale and it is dropped
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param value           the counter value
+     * @param timeRef         the counter time reference
+     * @param writeEpoch      the write epoch taken before reading the counter
+     * @return true if the counter was stored, false if it was dropped
+     */
+    public boolean putIfUnchanged(final String counterTypeCode, final String counterCode, final long value, final long timeRef, final long writeEpoch) {
+        final long type = hash(counterTypeCode);
+        final long key = key(type, hash(counterCode));
+        return stripe(key).putIfUnchanged(key, type, value, timeRef, writeEpoch);
+    }
+
+    /**
+     * Remove one counter
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @return true if the counter was cached, false otherwise
+     */
+    public boolean remove(final String counterTypeCode, final String counterCode) {
+        final long key = key(hash(counterTypeCode), hash(counterCode));
+        return stripe(key).remove(key);
+    }
+
+    /**
+     * Remove all counters of one counter type
+     *
+     * @param counterTypeCode your counter type code
+     * @return the number of removed counters
+     */
+    public int removeCounterType(final String counterTypeCode) {
+        final long type = hash(counterTypeCode);
+        int removed = 0;
+        for (final Stripe s : stripes)
+            removed += s.removeType(type);
+        return removed;
+    }
+
+    /**
+     * Remove all counters
+     */
+    public void clear() {
+        for (final Stripe s : stripes)
+            s.clear();
+    }
+
+    /**
+     * The current number of cached counters
+     *
+     * @return the current number of cached counters
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe s : stripes)
+            size += s.size;
+        return size;
+    }
+
+    /**
+     * The maximum number of cached counters
+     *
+     * @return the maximum number of cached counters
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * The number of counters evicted to make room for new ones
+     *
+     * @return the number of evicted counters
+     */
+    public long evictions() {
+        long evictions = 0L;
+        for (final Stripe s : stripes)
+            evictions += s.evictions;
+        return evictions;
+    }
+
+    private Stripe stripe(final long key) {
+        return stripes[(int) (key >>> 32) & stripeMask];
+    }
+
+    /**
+     * 64 bit FNV-1a string hash, finalized with the MurmurHash3 mixer
+     *
+     * @param xs the string to hash
+     * @return the hash
+     */
+    static long hash(final String xs) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0, n = xs.length(); i < n; i++) {
+            h ^= xs.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static int epochSlot(final long key) {
+        return (int) (key >>> 16) & (EPOCH_SLOTS - 1);
+    }
+
+    private static long key(final long typeHash, final long codeHash) {
+        final long k = mix(typeHash * EMPTY_REPLACEMENT + codeHash);
+        return k == EMPTY ? EMPTY_REPLACEMENT : k;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int nextPowerOfTwo(final int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * One independent open addressing table, the load factor is kept under 3/4 so probes are short and one empty slot
+     * always exists
+     */
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private final long[] keys;
+        private final long[] types;
+        private final long[] values;
+        private final long[] timeRefs;
+        private final byte[] referenced;
+        private final long[] epochs = new long[EPOCH_SLOTS];
+        private final int mask;
+        private final int maxSize;
+        private volatile int size;
+        private volatile long evictions;
+        private int hand;
+
+        Stripe(final int maxSize) {
+            final int slots = nextPowerOfTwo(Math.max(MIN_STRIPE_SLOTS, maxSize + (maxSize + 2) / 3));
+            this.keys = new long[slots];
+            this.types = new long[slots];
+            this.values = new long[slots];
+            this.timeRefs = new long[slots];
+            this.referenced = new byte[slots];
+            this.mask = slots - 1;
+            this.maxSize = maxSize;
+        }
+
+        boolean get(final long key, final CounterSink sink) {
+            long stamp = lock.tryOptimisticRead();
+            int i = find(key);
+            long value = i < 0 ? 0L : values[i];
+            long timeRef = i < 0 ? 0L : timeRefs[i];
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    i = find(key);
+                    value = i < 0 ? 0L : values[i];
+                    timeRef = i < 0 ? 0L : timeRefs[i];
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (i < 0)
+                return false;
+            // racy on purpose, losing one reference mark only makes the entry a bit more likely to be evicted
+            referenced[i] = 1;
+            sink.accept(value, timeRef);
+            return true;
+        }
+
+        long epoch(final long key) {
+            final long stamp = lock.tryOptimisticRead();
+            final long epoch = epochs[epochSlot(key)];
+            if (lock.validate(stamp))
+                return epoch;
+            final long readStamp = lock.readLock();
+            try {
+                return epochs[epochSlot(key)];
+            } finally {
+                lock.unlockRead(readStamp);
+            }
+        }
+
+        void put(final long key, final long type, final long value, final long timeRef) {
+            final long stamp = lock.writeLock();
+            try {
+                putLocked(key, type, value, timeRef);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean putIfUnchanged(final long key, final long type, final long value, final long timeRef, final long epoch) {
+            final long stamp = lock.writeLock();
+            try {
+                if (epochs[epochSlot(key)] != epoch)
+                    return false;
+                putLocked(key, type, value, timeRef);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Insert or replace one entry, must be called with the write lock held
+         */
+        private void putLocked(final long key, final long type, final long value, final long timeRef) {
+            int i = find(key);
+            if (i < 0) {
+                if (size >= maxSize)
+                    evictOne();
+                i = (int) key & mask;
+                while (keys[i] != EMPTY)
+                    i = (i + 1) & mask;
+                keys[i] = key;
+                types[i] = type;
+                size = size + 1;
+            }
+            values[i] = value;
+            timeRefs[i] = timeRef;
+            referenced[i] = 1;
+        }
+
+        boolean remove(final long key) {
+            final long stamp = lock.writeLock();
+            try {
+                epochs[epochSlot(key)]++;
+                final int i = find(key);
+                if (i < 0)
+                    return false;
+                delete(i);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int removeType(final long type) {
+            final long stamp = lock.writeLock();
+            try {
+                // keys are not stored, then all the epochs of the stripe are advanced
+                advanceEpochs();
+                int removed = 0;
+                int i = 0;
+                while (i <= mask) {
+                    // after one deletion, another entry could have been shifted into `i`
+                    if (keys[i] != EMPTY && types[i] == type) {
+                        delete(i);
+                        removed++;
+                    } else
+                        i++;
+                }
+                return removed;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void clear() {
+            final long stamp = lock.writeLock();
+            try {
+                advanceEpochs();
+                Arrays.fill(keys, EMPTY);
+                Arrays.fill(referenced, (byte) 0);
+                size = 0;
+                hand = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void advanceEpochs() {
+            for (int i = 0; i < EPOCH_SLOTS; i++)
+                epochs[i]++;
+        }
+
+        /**
+         * Search the key slot, the probe is bounded since optimistic readers could see one table being modified
+         *
+         * @param key the key
+         * @return the slot index or -1 if not found
+         */
+        private int find(final long key) {
+            int i = (int) key & mask;
+            for (int n = 0; n <= mask; n++) {
+                final long k = keys[i];
+                if (k == key)
+                    return i;
+                if (k == EMPTY)
+                    return -1;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * CLOCK (second chance) eviction, must be called with the write lock held and at least one entry
+         */
+        private void evictOne() {
+            while (true) {
+                final int i = hand;
+                hand = (hand + 1) & mask;
+                if (keys[i] != EMPTY) {
+                    if (referenced[i] != 0)
+                        referenced[i] = 0;
+                    else {
+                        delete(i);
+                        evictions = evictions + 1;
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Backward shift deletion, no tombstones are left so probes never get longer with time
+         *
+         * @param i the slot to delete
+         */
+        private void delete(int i) {
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                final long k = keys[j];
+                if (k == EMPTY)
+                    break;
+                final int home = (int) k & mask;
+                // the entry at `j` can be moved into `i` only if its home slot is not cyclically within (i, j]
+                final boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!stays) {
+                    keys[i] = k;
+                    types[i] = types[j];
+                    values[i] = values[j];
+                    timeRefs[i] = timeRefs[j];
+                    referenced[i] = referenced[j];
+                    i = j;
+                }
+            }
+            keys[i] = EMPTY;
+            referenced[i] = 0;
+            size = size - 1;
+        }
+    }
+}
@@ -16,4 +16,13 @@ public final class CounterTypeAndCounters {
     public Counter[] getCounters() {
         return counters;
     }
+
+    /**
+     * Columnar copy of the counters, for local queries over large counter types
+     *
+     * @return the counters snapshot
+     */
+    public CounterSnapshot toSnapshot() {
+        return CounterSnapshot.of(this);
+    }
 }
@@ -0,0 +1,444 @@
+package com.billmyservices.cli;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Thread safe counter types catalog persisted to one binary snapshot file, then new instances know all the counter
+ * types as soon as they start.
+ * <p>
+ * The snapshot is read (one unique read into one heap buffer, nothing is left mapped, then the file can be replaced on
+ * any platform) and loaded immediately, then the catalog is revalidated against the service in background (one
+ * `listCounterTypes` call), only the added, changed or removed counter types are applied (the cached counters of changed
+ * or removed types are evicted from the client counter store) and, if anything changed, the snapshot is rewritten (to
+ * one temporary file atomically moved over the previous one). One revalidation response older than the last applied
+ * one is dropped.
+ * <p>
+ * Snapshot format (big endian): magic `BMSC`, format version (int), saved time (long, UNIX EPOCH milliseconds), number
+ * of counter types (int), each counter type (code, name, value, k1, k2, version ordinal) and the CRC32 of all the
+ * previous bytes (int). Strings are one length (int, -1 if null) and their UTF-8 bytes.
+ */
+public final class CounterTypeCatalog {
+
+    private static final Logger LOGGER = Logger.getLogger(CounterTypeCatalog.class.getName());
+    private static final int MAGIC = 0x424D5343;
+    private static final int FORMAT_VERSION = 1;
+
+    private final BMSClient client;
+    private final Path snapshot;
+    private volatile Map<String, CounterType> counterTypes;
+    private volatile long savedAtMs;
+    private volatile boolean revalidated = false;
+    private final AtomicLong revalidations = new AtomicLong();
+    private long appliedRevalidation = 0L;
+
+    private CounterTypeCatalog(final BMSClient client, final Path snapshot, final Map<String, CounterType> counterTypes, final long savedAtMs) {
+        this.client = client;
+        this.snapshot = snapshot;
+        this.counterTypes = counterTypes;
+        this.savedAtMs = savedAtMs;
+    }
+
+    /**
+     * Load the catalog from its snapshot, if the snapshot does not exist or cannot be read, the catalog starts empty.
+     * Nothing is requested, use `revalidate` to synchronize it.
+     *
+     * @param client   the client used to revalidate the catalog
+     * @param snapshot the snapshot file
+     * @return the catalog
+     */
+    public static CounterTypeCatalog load(final BMSClient client, final Path snapshot) {
+        Map<String, CounterType> counterTypes = Collections.emptyMap();
+        long savedAtMs = 0L;
+        try {
+            final Snapshot s = read(snapshot);
+            counterTypes = s.counterTypes;
+            savedAtMs = s.savedAtMs;
+        } catch (NoSuchFileException e) {
+            LOGGER.fine(() -> String.format("no counter types snapshot `%s`", snapshot));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, String.format("cannot read the counter types snapshot `%s`, ignored", snapshot), e);
+        }
+        return new CounterTypeCatalog(client, snapshot, counterTypes, savedAtMs);
+    }
+
+    /**
+     * Find one counter type
+     *
+     * @param counterTypeCode your counter type code
+     * @return the counter type, or null if not known
+     */
+    public CounterType get(final String counterTypeCode) {
+        return counterTypes.get(counterTypeCode);
+    }
+
+    /**
+     * All the known counter types
+     *
+     * @return the known counter types
+     */
+    public Collection<CounterType> getAll() {
+        return counterTypes.values();
+    }
+
+    /**
+     * The number of known counter types
+     *
+     * @return the number of known counter types
+     */
+    public int size() {
+        return counterTypes.size();
+    }
+
+    /**
+     * When the catalog was last saved (UNIX EPOCH milliseconds), 0 if never
+     *
+     * @return when the catalog was last saved
+     */
+    public long getSavedAtMs() {
+        return savedAtMs;
+    }
+
+    /**
+     * Determine if the catalog was revalidated against the service at least once since it was loaded
+     *
+     * @return true if revalidated, false if it is only the loaded snapshot
+     */
+    public boolean isRevalidated() {
+        return revalidated;
+    }
+
+    /**
+     * Synchronize the catalog with the service counter types, only the differences are applied (on the common pool)
+     *
+     * @return the applied changes, failed if the service counter types cannot be fetched
+     */
+    public CompletableFuture<Result<Changes>> revalidate() {
+        return revalidate(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Synchronize the catalog with the service counter types, only the differences are applied. Applying them evicts
+     * cached counters and writes the snapshot, then it runs on the given executor, never on the transport threads.
+     *
+     * @param executor the executor applying the changes
+     * @return the applied changes, failed if the service counter types cannot be fetched
+     */
+    public CompletableFuture<Result<Changes>> revalidate(final Executor executor) {
+        final long revalidation = revalidations.incrementAndGet();
+        final CompletableFuture<Result<Changes>> result = new CompletableFuture<>();
+        client.listCounterTypes().toCompletableFuture().whenCompleteAsync((r, e) -> {
+            if (e != null)
+                result.completeExceptionally(e);
+            else if (!r.isSuccess())
+                result.complete(new Failed<>("cannot fetch the counter types: %s", r.getErrorMessage()));
+            else
+                try {
+                    result.complete(new Success<>(apply(r.get(), revalidation)));
+                } catch (RuntimeException x) {
+                    result.completeExceptionally(x);
+                }
+        }, executor).exceptionally(e -> {
+            // the executor rejected the changes
+            result.completeExceptionally(e);
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * Revalidate the catalog now and periodically, each revalidation is scheduled once the previous one completed,
+     * failures are logged and retried on the next period
+     *
+     * @param scheduler the scheduler running the revalidations and applying their changes
+     * @param periodMs  the revalidation period (milliseconds), between one revalidation completion and the next one
+     * @return the scheduled revalidations, cancel it to stop them
+     */
+    public Future<?> revalidateEvery(final ScheduledExecutorService scheduler, final long periodMs) {
+        final CompletableFuture<Void> revalidations = new CompletableFuture<>();
+        scheduler.execute(() -> revalidateNext(scheduler, periodMs, revalidations));
+        return revalidations;
+    }
+
+    private void revalidateNext(final ScheduledExecutorService scheduler, final long periodMs, final CompletableFuture<Void> revalidations) {
+        if (revalidations.isDone())
+            return;
+        revalidate(scheduler).whenComplete((r, e) -> {
+            if (e != null)
+                LOGGER.log(Level.WARNING, "cannot revalidate the counter types catalog", e);
+            else if (!r.isSuccess())
+                LOGGER.warning(r.getErrorMessage());
+            if (revalidations.isDone())
+                return;
+            try {
+                scheduler.schedule(() -> revalidateNext(scheduler, periodMs, revalidations), periodMs, MILLISECONDS);
+            } catch (RejectedExecutionException x) {
+                // the scheduler was shut down
+                revalidations.completeExceptionally(x);
+            }
+        });
+    }
+
+    /**
+     * Apply the service counter types, unless one newer revalidation was already applied
+     *
+     * @param current      the service counter types
+     * @param revalidation the revalidation sequence number
+     * @return the applied changes, empty if dropped
+     */
+    synchronized Changes apply(final CounterType[] current, final long revalidation) {
+        if (revalidation < appliedRevalidation) {
+            LOGGER.fine(() -> String.format("revalidation %d dropped, %d already applied", revalidation, appliedRevalidation));
+            return new Changes(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        }
+        appliedRevalidation = revalidation;
+        final Map<String, CounterType> known = counterTypes;
+        final Map<String, CounterType> next = new LinkedHashMap<>();
+        final List<String> added = new ArrayList<>();
+        final List<String> changed = new ArrayList<>();
+        for (final CounterType counterType : current) {
+            final CounterType before = known.get(counterType.getCode());
+            if (before != null && CounterTypeReconciler.sameDefinition(before, counterType)) {
+                // unchanged counter types keep their current instance
+                next.put(counterType.getCode(), before);
+            } else {
+                (before == null ? added : changed).add(counterType.getCode());
+                next.put(counterType.getCode(), counterType);
+            }
+        }
+        final List<String> removed = new ArrayList<>();
+        for (final String code : known.keySet())
+            if (!next.containsKey(code))
+                removed.add(code);
+
+        final Changes changes = new Changes(added, changed, removed);
+        if (!changes.isEmpty()) {
+            final CounterStore counterStore = client.getCounterStore();
+            if (counterStore != null) {
+                changed.forEach(counterStore::removeCounterType);
+                removed.forEach(counterStore::removeCounterType);
+            }
+            counterTypes = Collections.unmodifiableMap(next);
+            try {
+                savedAtMs = System.currentTimeMillis();
+                write(snapshot, next.values(), savedAtMs);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("cannot write the counter types snapshot `%s`", snapshot), e);
+            }
+        }
+        revalidated = true;
+        return changes;
+    }
+
+    /**
+     * Read one snapshot file
+     *
+     * @param snapshot the snapshot file
+     * @return the snapshot
+     * @throws IOException if the snapshot cannot be read or is corrupted
+     */
+    static Snapshot read(final Path snapshot) throws IOException {
+        final byte[] content;
+        try (final FileChannel channel = FileChannel.open(snapshot, READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("not a counter types snapshot");
+            content = new byte[(int) size];
+            final ByteBuffer target = ByteBuffer.wrap(content);
+            while (target.hasRemaining())
+                if (channel.read(target) < 0)
+                    throw new IOException("truncated counter types snapshot");
+        }
+
+        final ByteBuffer bytes = ByteBuffer.wrap(content);
+        if (bytes.remaining() < 24 || bytes.getInt() != MAGIC)
+            throw new IOException("not a counter types snapshot");
+        final int formatVersion = bytes.getInt();
+        if (formatVersion != FORMAT_VERSION)
+            throw new IOException(String.format("unsupported counter types snapshot version %d", formatVersion));
+
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - 4);
+        if ((int) crc.getValue() != bytes.getInt(content.length - 4))
+            throw new IOException("corrupted counter types snapshot");
+
+        final long savedAtMs = bytes.getLong();
+        final int n = bytes.getInt();
+        final CounterVersion[] versions = CounterVersion.values();
+        final Map<String, CounterType> counterTypes = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            final String code = readString(bytes);
+            final String name = readString(bytes);
+            final long value = bytes.getLong();
+            final long k1 = bytes.getLong();
+            final long k2 = bytes.getLong();
+            final int version = bytes.get();
+            counterTypes.put(code, new CounterType(code, name, value, k1, k2, version < 0 ? null : versions[version]));
+        }
+        return new Snapshot(Collections.unmodifiableMap(counterTypes), savedAtMs);
+    }
+
+    /**
+     * Write one snapshot file, replacing the previous one atomically
+     *
+     * @param snapshot     the snapshot file
+     * @param counterTypes the counter types
+     * @param savedAtMs    the saved time (UNIX EPOCH milliseconds)
+     * @throws IOException if the snapshot cannot be written
+     */
+    static void write(final Path snapshot, final Collection<CounterType> counterTypes, final long savedAtMs) throws IOException {
+        final List<byte[]> strings = new ArrayList<>(2 * counterTypes.size());
+        int size = 4 + 4 + 8 + 4 + 4;
+        for (final CounterType counterType : counterTypes) {
+            final byte[] code = counterType.getCode().getBytes(StandardCharsets.UTF_8);
+            final byte[] name = counterType.getName() == null ? null : counterType.getName().getBytes(StandardCharsets.UTF_8);
+            strings.add(code);
+            strings.add(name);
+            size += 4 + code.length + 4 + (name == null ? 0 : name.length) + 3 * 8 + 1;
+        }
+
+        final ByteBuffer bytes = ByteBuffer.allocate(size);
+        bytes.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(savedAtMs).putInt(counterTypes.size());
+        int i = 0;
+        for (final CounterType counterType : counterTypes) {
+            writeString(bytes, strings.get(i++));
+            writeString(bytes, strings.get(i++));
+            bytes.putLong(counterType.getValue()).putLong(counterType.getK1()).putLong(counterType.getK2());
+            bytes.put((byte) (counterType.getVersion() == null ? -1 : counterType.getVersion().ordinal()));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.array(), 0, bytes.position());
+        bytes.putInt((int) crc.getValue());
+        final ByteBuffer content = ByteBuffer.wrap(bytes.array(), 0, bytes.position());
+
+        final Path parent = snapshot.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        final Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (content.hasRemaining())
+                channel.write(content);
+            channel.force(true);
+        }
+        try {
+            Files.move(tmp, snapshot, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, snapshot, REPLACE_EXISTING);
+        }
+    }
+
+    private static String readString(final ByteBuffer bytes) {
+        final int length = bytes.getInt();
+        if (length < 0)
+            return null;
+        final byte[] xs = new byte[length];
+        bytes.get(xs);
+        return new String(xs, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(final ByteBuffer bytes, final byte[] xs) {
+        if (xs == null)
+            bytes.putInt(-1);
+        else
+            bytes.putInt(xs.length).put(xs);
+    }
+
+    /**
+     * One read snapshot
+     */
+    static final class Snapshot {
+        final Map<String, CounterType> counterTypes;
+        final long savedAtMs;
+
+        Snapshot(final Map<String, CounterType> counterTypes, final long savedAtMs) {
+            this.counterTypes = counterTypes;
+            this.savedAtMs = savedAtMs;
+        }
+    }
+
+    /**
+     * The changes applied by one revalidation
+     */
+    public static final class Changes {
+        private final List<String> added;
+        private final List<String> changed;
+        private final List<String> removed;
+
+        Changes(final List<String> added, final List<String> changed, final List<String> removed) {
+            this.added = Collections.unmodifiableList(added);
+            this.changed = Collections.unmodifiableList(changed);
+            this.removed = Collections.unmodifiableList(removed);
+        }
+
+        /**
+         * The new counter type codes
+         *
+         * @return the new counter type codes
+         */
+        public List<String> getAdded() {
+            return added;
+        }
+
+        /**
+         * The changed counter type codes
+         *
+         * @return the changed counter type codes
+         */
+        public List<String> getChanged() {
+            return changed;
+        }
+
+        /**
+         * The no longer existing counter type codes
+         *
+         * @return the no longer existing counter type codes
+         */
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Determine if nothing changed
+         *
+         * @return true if nothing changed
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d added, %d changed, %d removed", added.size(), changed.size(), removed.size());
+        }
+    }
+}
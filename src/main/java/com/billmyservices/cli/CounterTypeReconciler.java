@@ -0,0 +1,448 @@
+package com.billmyservices.cli;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Declarative counter types synchronization: given the desired counter types, the current ones are fetched once (one
+ * `listCounterTypes` call) and only the differences are applied.
+ * <p>
+ * Missing counter types are added, changed ones are updated in place (added again over the current one) and, only if
+ * requested, the counter types not desired are deleted. If one changed counter type cannot be updated in place and
+ * `allowRecreate` is set, it is deleted and added again (then its counters are reset). At most `parallelism` counter
+ * types are applied at the same time and each failed request is retried (up to `maxAttempts` times) after one
+ * exponential backoff, except the definitive failures (http 4xx but timeouts and throttling).
+ */
+public final class CounterTypeReconciler {
+
+    private static final long BASE_BACKOFF_MS = 100L;
+
+    private final BMSClient client;
+    private final ScheduledExecutorService scheduler;
+    private final int parallelism;
+    private final int maxAttempts;
+    private final boolean allowRecreate;
+
+    /**
+     * Create a new one counter types reconciler, changed counter types are never deleted to be added again.
+     *
+     * @param client      the client used to apply the changes
+     * @param scheduler   the scheduler running the retries
+     * @param parallelism the maximum number of counter types applied at the same time
+     * @param maxAttempts the maximum number of attempts of each request
+     */
+    public CounterTypeReconciler(final BMSClient client, final ScheduledExecutorService scheduler, final int parallelism, final int maxAttempts) {
+        this(client, scheduler, parallelism, maxAttempts, false);
+    }
+
+    /**
+     * Create a new one counter types reconciler.
+     *
+     * @param client        the client used to apply the changes
+     * @param scheduler     the scheduler running the retries
+     * @param parallelism   the maximum number of counter types applied at the same time
+     * @param maxAttempts   the maximum number of attempts of each request
+     * @param allowRecreate if true, changed counter types which cannot be updated in place are deleted and added again
+     *                      (their counters are reset)
+     */
+    public CounterTypeReconciler(final BMSClient client, final ScheduledExecutorService scheduler, final int parallelism, final int maxAttempts,
+                                 final boolean allowRecreate) {
+        if (parallelism < 1 || maxAttempts < 1)
+            throw new IllegalArgumentException("`parallelism` and `maxAttempts` must be positive");
+        this.client = client;
+        this.scheduler = scheduler;
+        this.parallelism = parallelism;
+        this.maxAttempts = maxAttempts;
+        this.allowRecreate = allowRecreate;
+    }
+
+    /**
+     * Apply the desired counter types
+     *
+     * @param desired the desired counter types (unique codes)
+     * @param prune   if true, the current counter types not desired are deleted
+     * @return the reconciliation report, failed only if the current counter types cannot be fetched
+     */
+    public CompletableFuture<Result<Report>> reconcile(final Collection<CounterType> desired, final boolean prune) {
+        final Map<String, CounterType> wanted = new LinkedHashMap<>();
+        for (final CounterType counterType : desired)
+            if (wanted.put(counterType.getCode(), counterType) != null)
+                throw new IllegalArgumentException(String.format("duplicated counter type code `%s`", counterType.getCode()));
+
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<Result<Report>> result = new CompletableFuture<>();
+        client.listCounterTypes().toCompletableFuture().whenComplete((current, e) -> {
+            if (e != null)
+                result.completeExceptionally(e);
+            else if (!current.isSuccess())
+                result.complete(new Failed<>("cannot fetch the current counter types: %s", current.getErrorMessage()));
+            else {
+                final List<Change> changes = plan(wanted, current.get(), prune);
+                final int unchanged = wanted.size() - (int) changes.stream().filter(c -> c.kind != ChangeKind.DELETE).count();
+                new Run(changes, unchanged, startNanos, result).start();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Compute the changes to apply
+     *
+     * @param wanted  the desired counter types by code
+     * @param current the current counter types
+     * @param prune   if true, the current counter types not desired are deleted
+     * @return the changes, the unchanged counter types are not included
+     */
+    static List<Change> plan(final Map<String, CounterType> wanted, final CounterType[] current, final boolean prune) {
+        final Map<String, CounterType> existing = new LinkedHashMap<>();
+        for (final CounterType counterType : current)
+            existing.put(counterType.getCode(), counterType);
+        final List<Change> changes = new ArrayList<>();
+        for (final CounterType counterType : wanted.values()) {
+            final CounterType now = existing.get(counterType.getCode());
+            if (now == null)
+                changes.add(new Change(ChangeKind.ADD, counterType));
+            else if (!sameDefinition(now, counterType))
+                changes.add(new Change(ChangeKind.UPDATE, counterType));
+        }
+        if (prune)
+            for (final CounterType counterType : existing.values())
+                if (!wanted.containsKey(counterType.getCode()))
+                    changes.add(new Change(ChangeKind.DELETE, counterType));
+        return changes;
+    }
+
+    /**
+     * Determine if one failed request must not be retried: http 4xx but timeouts (408) and throttling (429)
+     *
+     * @param result the failed request result
+     * @return true if retrying cannot succeed
+     */
+    static boolean definitive(final Result<?> result) {
+        if (!(result instanceof HttpFailed))
+            return false;
+        final int statusCode = ((HttpFailed<?>) result).getStatusCode();
+        return statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
+    }
+
+    static boolean sameDefinition(final CounterType a, final CounterType b) {
+        return a.getCode().equals(b.getCode())
+                && Objects.equals(a.getName(), b.getName())
+                && a.getValue() == b.getValue()
+                && a.getK1() == b.getK1()
+                && a.getK2() == b.getK2()
+                && a.getVersion() == b.getVersion();
+    }
+
+    /**
+     * The kind of one change
+     */
+    enum ChangeKind {
+        ADD, UPDATE, DELETE
+    }
+
+    /**
+     * One counter type change
+     */
+    static final class Change {
+        final ChangeKind kind;
+        final CounterType counterType;
+
+        Change(final ChangeKind kind, final CounterType counterType) {
+            this.kind = kind;
+            this.counterType = counterType;
+        }
+    }
+
+    /**
+     * One reconciliation in progress, each completed change frees its slot for the next pending one
+     */
+    private final class Run {
+        private final Queue<Change> pending;
+        private final AtomicInteger remaining;
+        private final int unchanged;
+        private final long startNanos;
+        private final CompletableFuture<Result<Report>> result;
+        private final List<String> added = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> updated = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> deleted = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> missing = Collections.synchronizedList(new ArrayList<>());
+        private final Map<String, String> failed = new ConcurrentHashMap<>();
+        private final AtomicInteger requests = new AtomicInteger(1);
+        private final AtomicInteger retries = new AtomicInteger();
+        // guarded by this
+        private int free = 0;
+        private boolean draining = false;
+
+        Run(final List<Change> changes, final int unchanged, final long startNanos, final CompletableFuture<Result<Report>> result) {
+            this.pending = new ArrayDeque<>(changes);
+            this.remaining = new AtomicInteger(changes.size());
+            this.unchanged = unchanged;
+            this.startNanos = startNanos;
+            this.result = result;
+        }
+
+        void start() {
+            if (pending.isEmpty()) {
+                finish();
+                return;
+            }
+            release(parallelism);
+        }
+
+        /**
+         * Free some slots and start the pending changes, changes may complete synchronously (e.g. one transport failing
+         * immediately), then only one caller starts them (loop) and the nested calls only free their slot
+         *
+         * @param slots the freed slots
+         */
+        private void release(final int slots) {
+            synchronized (this) {
+                free += slots;
+                if (draining)
+                    return;
+                draining = true;
+            }
+            Change change;
+            while ((change = take()) != null)
+                start(change);
+        }
+
+        /**
+         * Take the next change allowed to start, if none, the draining ends
+         *
+         * @return the next change or null if none
+         */
+        private synchronized Change take() {
+            final Change change = free > 0 ? pending.poll() : null;
+            if (change == null)
+                draining = false;
+            else
+                free--;
+            return change;
+        }
+
+        private void start(final Change change) {
+            apply(change).whenComplete((error, e) -> {
+                final String code = change.counterType.getCode();
+                if (e != null || error != null)
+                    failed.put(code, e != null ? String.valueOf(e) : error);
+                else if (change.kind == ChangeKind.ADD)
+                    added.add(code);
+                else if (change.kind == ChangeKind.UPDATE)
+                    updated.add(code);
+                else
+                    deleted.add(code);
+                if (remaining.decrementAndGet() == 0)
+                    finish();
+                else
+                    release(1);
+            });
+        }
+
+        /**
+         * Apply one change
+         *
+         * @param change the change
+         * @return null if applied, the error message otherwise
+         */
+        private CompletableFuture<String> apply(final Change change) {
+            final String code = change.counterType.getCode();
+            switch (change.kind) {
+                case ADD:
+                    return attempt(() -> client.addCounterType(change.counterType).toCompletableFuture(), 1);
+                case UPDATE:
+                    return attempt(() -> client.addCounterType(change.counterType).toCompletableFuture(), 1)
+                            .thenCompose(error -> error == null || !allowRecreate
+                                    ? CompletableFuture.completedFuture(error)
+                                    : recreate(change.counterType));
+                default:
+                    return attempt(() -> client.deleteCounterType(code).toCompletableFuture(), 1);
+            }
+        }
+
+        /**
+         * Delete and add again one counter type, if it cannot be added again, it is reported as missing
+         *
+         * @param counterType the counter type
+         * @return null if applied, the error message otherwise
+         */
+        private CompletableFuture<String> recreate(final CounterType counterType) {
+            return attempt(() -> client.deleteCounterType(counterType.getCode()).toCompletableFuture(), 1)
+                    .thenCompose(error -> error != null
+                            ? CompletableFuture.completedFuture(error)
+                            : attempt(() -> client.addCounterType(counterType).toCompletableFuture(), 1).thenApply(e -> {
+                        if (e == null)
+                            return null;
+                        missing.add(counterType.getCode());
+                        return String.format("deleted but not added again, now missing: %s", e);
+                    }));
+        }
+
+        private CompletableFuture<String> attempt(final Supplier<CompletableFuture<Result<Boolean>>> request, final int attempt) {
+            requests.incrementAndGet();
+            final CompletableFuture<String> outcome = new CompletableFuture<>();
+            request.get().whenComplete((r, e) -> {
+                final String error = e != null
+                        ? String.valueOf(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e)
+                        : r.isSuccess() ? null : r.getErrorMessage();
+                if (error == null || attempt >= maxAttempts || (e == null && definitive(r))) {
+                    outcome.complete(error);
+                    return;
+                }
+                retries.incrementAndGet();
+                scheduler.schedule(() -> attempt(request, attempt + 1).whenComplete((x, f) -> {
+                    if (f != null)
+                        outcome.completeExceptionally(f);
+                    else
+                        outcome.complete(x);
+                }), BASE_BACKOFF_MS << Math.min(attempt - 1, 10), MILLISECONDS);
+            });
+            return outcome;
+        }
+
+        private void finish() {
+            result.complete(new Success<>(new Report(added, updated, deleted, missing, unchanged, failed, requests.get(), retries.get(),
+                    (System.nanoTime() - startNanos) / 1_000_000L)));
+        }
+    }
+
+    /**
+     * Reconciliation summary
+     */
+    public static final class Report {
+        private final List<String> added;
+        private final List<String> updated;
+        private final List<String> deleted;
+        private final List<String> missing;
+        private final int unchanged;
+        private final Map<String, String> failed;
+        private final int requests;
+        private final int retries;
+        private final long elapsedMs;
+
+        Report(final List<String> added, final List<String> updated, final List<String> deleted, final List<String> missing,
+               final int unchanged, final Map<String, String> failed, final int requests, final int retries, final long elapsedMs) {
+            this.added = Collections.unmodifiableList(new ArrayList<>(added));
+            this.updated = Collections.unmodifiableList(new ArrayList<>(updated));
+            this.deleted = Collections.unmodifiableList(new ArrayList<>(deleted));
+            this.missing = Collections.unmodifiableList(new ArrayList<>(missing));
+            this.unchanged = unchanged;
+            this.failed = Collections.unmodifiableMap(new LinkedHashMap<>(failed));
+            this.requests = requests;
+            this.retries = retries;
+            this.elapsedMs = elapsedMs;
+        }
+
+        /**
+         * The added counter type codes
+         *
+         * @return the added counter type codes
+         */
+        public List<String> getAdded() {
+            return added;
+        }
+
+        /**
+         * The changed counter type codes (updated in place or, if allowed, deleted and added again)
+         *
+         * @return the changed counter type codes
+         */
+        public List<String> getUpdated() {
+            return updated;
+        }
+
+        /**
+         * The deleted (not desired) counter type codes
+         *
+         * @return the deleted counter type codes
+         */
+        public List<String> getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * The changed counter type codes deleted but not added again, they are now missing (also reported as failed)
+         *
+         * @return the missing counter type codes
+         */
+        public List<String> getMissing() {
+            return missing;
+        }
+
+        /**
+         * The number of desired counter types already up to date
+         *
+         * @return the number of unchanged counter types
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * The counter types which could not be applied, with their last error message
+         *
+         * @return the failed counter type codes and error messages
+         */
+        public Map<String, String> getFailed() {
+            return failed;
+        }
+
+        /**
+         * Determine if all the changes were applied
+         *
+         * @return true if no change failed
+         */
+        public boolean isComplete() {
+            return failed.isEmpty();
+        }
+
+        /**
+         * The number of sent requests, including the retries and the initial list
+         *
+         * @return the number of sent requests
+         */
+        public int getRequests() {
+            return requests;
+        }
+
+        /**
+         * The number of retried requests
+         *
+         * @return the number of retried requests
+         */
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * The reconciliation time (milliseconds)
+         *
+         * @return the reconciliation time
+         */
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d added, %d updated, %d deleted, %d unchanged, %d failed, %d missing (%d requests, %d retries, %d ms)",
+                    added.size(), updated.size(), deleted.size(), unchanged, failed.size(), missing.size(), requests, retries, elapsedMs);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.billmyservices.cli;
+
+import org.asynchttpclient.ListenableFuture;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Thread safe counters watcher, all the listeners of one counter share one unique poller.
+ * <p>
+ * Each poller adapts its interval to the observed changes: the interval is halved when the counter changed and
+ * enlarged when not, always between the minimum and maximum intervals. For `FrequencyCounter` types, one poll is
+ * always scheduled just after the current k2 window ends, since then the counter is reset.
+ * <p>
+ * Polls are sent through the admin lane, then, with one request scheduler, they never delay the admission checks. The
+ * counter type definitions are listed at most once every `counterTypesTtlMs`, one code missing from the last list stays
+ * unknown (no window alignment) until the next one.
+ */
+public final class CounterWatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(CounterWatcher.class.getName());
+    private static final long WINDOW_SLACK_MS = 50L;
+    private static final long DEFAULT_COUNTER_TYPES_TTL_MS = 300_000L;
+
+    private final BMSClient client;
+    private final ScheduledExecutorService scheduler;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final long counterTypesTtlMs;
+    private final Map<String, Poller> pollers = new ConcurrentHashMap<>();
+    private volatile Map<String, CounterType> counterTypes = Collections.emptyMap();
+    private final AtomicLong counterTypesListedAtMs = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Create a new one counter watcher, the counter type definitions are listed again every 5 minutes.
+     *
+     * @param client        the client used to read the counters
+     * @param scheduler     the scheduler running the polls and the listeners
+     * @param minIntervalMs the minimum polling interval (milliseconds)
+     * @param maxIntervalMs the maximum polling interval (milliseconds)
+     */
+    public CounterWatcher(final BMSClient client, final ScheduledExecutorService scheduler, final long minIntervalMs, final long maxIntervalMs) {
+        this(client, scheduler, minIntervalMs, maxIntervalMs, DEFAULT_COUNTER_TYPES_TTL_MS);
+    }
+
+    /**
+     * Create a new one counter watcher.
+     *
+     * @param client            the client used to read the counters
+     * @param scheduler         the scheduler running the polls and the listeners
+     * @param minIntervalMs     the minimum polling interval (milliseconds)
+     * @param maxIntervalMs     the maximum polling interval (milliseconds)
+     * @param counterTypesTtlMs how long the listed counter type definitions (and missing codes) are used (milliseconds)
+     */
+    public CounterWatcher(final BMSClient client, final ScheduledExecutorService scheduler, final long minIntervalMs, final long maxIntervalMs,
+                          final long counterTypesTtlMs) {
+        if (minIntervalMs < 1L || maxIntervalMs < minIntervalMs)
+            throw new IllegalArgumentException("expected 0 < `minIntervalMs` <= `maxIntervalMs`");
+        if (counterTypesTtlMs < 1L)
+            throw new IllegalArgumentException("`counterTypesTtlMs` must be positive");
+        this.client = client;
+        this.scheduler = scheduler;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.counterTypesTtlMs = counterTypesTtlMs;
+    }
+
+    /**
+     * Watch one counter, if the counter is already watched, the existing poller is shared and the last known counter
+     * state is delivered to the new listener.
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param listener        the changes listener
+     * @return the subscription, close it to stop watching
+     */
+    public Subscription watch(final String counterTypeCode, final String counterCode, final CounterListener listener) {
+        final String key = counterTypeCode + "/" + counterCode;
+        final Poller poller = pollers.compute(key, (k, p) -> {
+            final Poller q = p == null ? new Poller(key, counterTypeCode, counterCode) : p;
+            q.listeners.add(listener);
+            return q;
+        });
+        poller.subscribed(listener);
+        return new Subscription(poller, listener);
+    }
+
+    /**
+     * The number of active pollers (one for each watched counter)
+     *
+     * @return the number of active pollers
+     */
+    public int pollers() {
+        return pollers.size();
+    }
+
+    private void unsubscribe(final Poller poller, final CounterListener listener) {
+        pollers.computeIfPresent(poller.key, (k, p) -> {
+            if (p != poller || !p.listeners.remove(listener) || !p.listeners.isEmpty())
+                return p;
+            p.stopped = true;
+            return null;
+        });
+    }
+
+    /**
+     * Find the counter type definition, once the listed definitions expire, one (unique) background refresh is started,
+     * known and missing codes are both served from the last list until then
+     *
+     * @param counterTypeCode your counter type code
+     * @return the counter type or null if unknown
+     */
+    private CounterType counterType(final String counterTypeCode) {
+        final long now = System.currentTimeMillis();
+        final long listedAtMs = counterTypesListedAtMs.get();
+        if ((listedAtMs == Long.MIN_VALUE || now - listedAtMs >= counterTypesTtlMs) && counterTypesListedAtMs.compareAndSet(listedAtMs, now)) {
+            // failed refreshes are retried once the ttl expires again
+            final ListenableFuture<Result<CounterType[]>> f = client.listCounterTypes();
+            f.addListener(() -> {
+                try {
+                    final Result<CounterType[]> r = f.get();
+                    if (r.isSuccess()) {
+                        final Map<String, CounterType> next = new HashMap<>();
+                        for (final CounterType ct : r.get())
+                            next.put(ct.getCode(), ct);
+                        counterTypes = next;
+                    } else
+                        LOGGER.fine(() -> String.format("cannot read the counter types: %s", r.getErrorMessage()));
+                } catch (InterruptedException | ExecutionException e) {
+                    LOGGER.log(Level.FINE, "cannot read the counter types", e);
+                }
+            }, scheduler);
+        }
+        return counterTypes.get(counterTypeCode);
+    }
+
+    /**
+     * One watched counter subscription
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Poller poller;
+        private final CounterListener listener;
+
+        private Subscription(final Poller poller, final CounterListener listener) {
+            this.poller = poller;
+            this.listener = listener;
+        }
+
+        /**
+         * Stop watching, if there are no more listeners for the counter, its poller is stopped
+         */
+        @Override
+        public void close() {
+            unsubscribe(poller, listener);
+        }
+    }
+
+    /**
+     * The unique poller of one counter, polls never overlap since the next one is scheduled when the previous ends
+     */
+    private final class Poller {
+        private final String key;
+        private final String counterTypeCode;
+        private final String counterCode;
+        private final List<CounterListener> listeners = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private volatile Counter last;
+        private volatile boolean stopped;
+        private long intervalMs = minIntervalMs;
+
+        Poller(final String key, final String counterTypeCode, final String counterCode) {
+            this.key = key;
+            this.counterTypeCode = counterTypeCode;
+            this.counterCode = counterCode;
+        }
+
+        void subscribed(final CounterListener listener) {
+            if (started.compareAndSet(false, true)) {
+                scheduler.execute(this::poll);
+                return;
+            }
+            final Counter counter = last;
+            if (counter != null)
+                scheduler.execute(() -> notify(listener, counter));
+        }
+
+        private void poll() {
+            if (stopped)
+                return;
+            final CounterType counterType = counterType(counterTypeCode);
+            final ListenableFuture<Result<Counter>> f = client.readCounter(counterTypeCode, counterCode, null, RequestLane.ADMIN);
+            f.addListener(() -> {
+                boolean changed = false;
+                try {
+                    final Result<Counter> r = f.get();
+                    if (r.isSuccess())
+                        changed = update(r.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    LOGGER.log(Level.FINE, String.format("cannot read the counter `%s`", key), e);
+                }
+                if (!stopped)
+                    scheduler.schedule(this::poll, nextDelay(changed, counterType), MILLISECONDS);
+            }, scheduler);
+        }
+
+        private boolean update(final Counter counter) {
+            final Counter previous = last;
+            if (previous != null && previous.getValue() == counter.getValue() && previous.getTimeRef() == counter.getTimeRef())
+                return false;
+            last = counter;
+            for (final CounterListener listener : listeners)
+                notify(listener, counter);
+            return true;
+        }
+
+        private void notify(final CounterListener listener, final Counter counter) {
+            try {
+                listener.onChange(counterTypeCode, counter);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("counter `%s` listener failed", key), e);
+            }
+        }
+
+        private long nextDelay(final boolean changed, final CounterType counterType) {
+            intervalMs = changed
+                    ? Math.max(minIntervalMs, intervalMs / 2L)
+                    : Math.min(maxIntervalMs, intervalMs + (intervalMs + 1L) / 2L);
+            final Counter counter = last;
+            if (counter != null && counterType != null && counterType.getVersion() == CounterVersion.FrequencyCounter) {
+                final long windowEndMs = (counter.getTimeRef() + counterType.getK2()) * 1_000L + WINDOW_SLACK_MS;
+                final long untilWindowEnd = windowEndMs - System.currentTimeMillis();
+                if (untilWindowEnd > 0L && untilWindowEnd < intervalMs)
+                    return Math.max(minIntervalMs, untilWindowEnd);
+            }
+            return intervalMs;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.billmyservices.cli;
+
+/**
+ * Receive the counters of one counter type as primitive values, no object is needed to move them
+ */
+@FunctionalInterface
+public interface CountersSink {
+
+    /**
+     * Consume one counter state
+     *
+     * @param code    the counter code, only valid during this call (copy it, e.g. `toString()`, to keep it)
+     * @param value   the current counter value
+     * @param timeRef the UNIX EPOCH time
+     */
+    void accept(CharSequence code, long value, long timeRef);
+}
@@ -0,0 +1,72 @@
+package com.billmyservices.cli;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable point in time after which one operation result is no longer useful.
+ * <p>
+ * Operations with one deadline are discarded (not signed nor sent) if the deadline expired while waiting, and cancelled
+ * if it expires while in-flight, in both cases the result is one failure with `isDeadlineExceeded` true.
+ */
+public final class Deadline {
+
+    private final long deadlineNanos;
+
+    private Deadline(final long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Create a new one deadline from now
+     *
+     * @param duration the time budget
+     * @param unit     the time budget unit
+     * @return the deadline
+     */
+    public static Deadline after(final long duration, final TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * Create a new one deadline from now
+     *
+     * @param millis the time budget (milliseconds)
+     * @return the deadline
+     */
+    public static Deadline afterMillis(final long millis) {
+        return after(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Determine if the deadline expired
+     *
+     * @return true if expired, false otherwise
+     */
+    public boolean isExpired() {
+        return remainingNanos() <= 0L;
+    }
+
+    /**
+     * The remaining time, negative if expired
+     *
+     * @return the remaining time (nanoseconds)
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * The remaining time rounded up, at least one millisecond if not expired, zero if expired
+     *
+     * @return the remaining time (milliseconds)
+     */
+    public long remainingMillis() {
+        final long nanos = remainingNanos();
+        return nanos <= 0L ? 0L : (nanos + 999_999L) / 1_000_000L;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Deadline(%d ms remaining)", remainingNanos() / 1_000_000L);
+    }
+}
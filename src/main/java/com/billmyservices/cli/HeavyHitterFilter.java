@@ -0,0 +1,235 @@
+package com.billmyservices.cli;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.billmyservices.cli.CounterVersion.FrequencyCounter;
+
+/**
+ * Thread safe, fixed memory, `FrequencyCounter` posts prefilter: counter codes clearly over their counter type k1
+ * limit are denied locally, without sending any request.
+ * <p>
+ * For each tracked counter type, the posted values are counted into two count-min sketches, the current and the
+ * previous k2 windows, and one counter code value is estimated as its current window count plus its previous window
+ * count weighted by the not yet elapsed fraction of the current window. One count-min sketch never underestimates and,
+ * with probability `1 - delta`, overestimates at most `epsilon` times the window total, then, one counter code is
+ * denied only if its estimate minus that error bound is still over `denyFactor` times k1. Borderline counter codes are
+ * always sent to the service, which keeps the authoritative counter.
+ * <p>
+ * The memory of each tracked counter type is `2 * ceil(e / epsilon) * ceil(ln(1 / delta))` longs, whatever the number
+ * of distinct counter codes.
+ */
+public final class HeavyHitterFilter {
+
+    private final double epsilon;
+    private final double delta;
+    private final double denyFactor;
+    private final int width;
+    private final int depth;
+    private final Map<String, Sketch> sketches = new ConcurrentHashMap<>();
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+
+    /**
+     * Create a new one prefilter.
+     *
+     * @param epsilon    the sketch error bound, as a fraction of the window total value (e.g. 0.001)
+     * @param delta      the probability of exceeding the error bound (e.g. 0.01)
+     * @param denyFactor how many times over k1 one counter code must be to be denied locally (e.g. 2.0)
+     */
+    public HeavyHitterFilter(final double epsilon, final double delta, final double denyFactor) {
+        if (!(epsilon > 0.0 && epsilon < 1.0) || !(delta > 0.0 && delta < 1.0))
+            throw new IllegalArgumentException("expected 0 < `epsilon` < 1 and 0 < `delta` < 1");
+        if (!(denyFactor >= 1.0))
+            throw new IllegalArgumentException("`denyFactor` must be at least 1");
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.denyFactor = denyFactor;
+        this.width = (int) Math.ceil(Math.E / epsilon);
+        this.depth = (int) Math.ceil(Math.log(1.0 / delta));
+    }
+
+    /**
+     * Start filtering the posts of one counter type, if it was already tracked, its windows are reset.
+     *
+     * @param counterType one `FrequencyCounter` counter type
+     * @return this prefilter
+     */
+    public HeavyHitterFilter track(final CounterType counterType) {
+        if (counterType.getVersion() != FrequencyCounter)
+            throw new IllegalArgumentException(String.format("`%s` is not a frequency counter type", counterType.getCode()));
+        if (counterType.getK2() < 1L)
+            throw new IllegalArgumentException(String.format("`%s` k2 window must be positive", counterType.getCode()));
+        sketches.put(counterType.getCode(), new Sketch(counterType.getK1(), counterType.getK2() * 1_000L));
+        return this;
+    }
+
+    /**
+     * Stop filtering the posts of one counter type
+     *
+     * @param counterTypeCode the counter type code
+     * @return true if it was tracked
+     */
+    public boolean untrack(final String counterTypeCode) {
+        return sketches.remove(counterTypeCode) != null;
+    }
+
+    /**
+     * Determine if one post must be denied locally and, if not, account it. Only the sent posts are accounted, as the
+     * service counts them, then a denied counter code is sent again once its sent posts leave the windows. Untracked
+     * counter types and non positive values are never denied nor accounted.
+     *
+     * @param counterTypeCode your counter type code
+     * @param counterCode     your counter code
+     * @param valueDelta      the posted value delta
+     * @return true if the post must be denied without sending it
+     */
+    public boolean deny(final String counterTypeCode, final String counterCode, final long valueDelta) {
+        return deny(counterTypeCode, counterCode, valueDelta, System.currentTimeMillis());
+    }
+
+    boolean deny(final String counterTypeCode, final String counterCode, final long valueDelta, final long nowMs) {
+        final Sketch sketch = sketches.get(counterTypeCode);
+        if (sketch == null || valueDelta <= 0L)
+            return false;
+        checked.increment();
+        if (sketch.checkAndAdd(CounterStore.hash(counterCode), valueDelta, nowMs)) {
+            denied.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The number of posts checked (of tracked counter types)
+     *
+     * @return the number of posts checked
+     */
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    /**
+     * The number of posts denied locally (short-circuited)
+     *
+     * @return the number of posts denied locally
+     */
+    public long getDenied() {
+        return denied.sum();
+    }
+
+    /**
+     * The sketch error bound, as a fraction of the window total value
+     *
+     * @return the sketch error bound
+     */
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * The probability of exceeding the error bound
+     *
+     * @return the probability of exceeding the error bound
+     */
+    public double getDelta() {
+        return delta;
+    }
+
+    /**
+     * The memory used by each tracked counter type (bytes, approximate)
+     *
+     * @return the memory used by each tracked counter type
+     */
+    public long getBytesPerCounterType() {
+        return 2L * width * depth * Long.BYTES;
+    }
+
+    /**
+     * The two windows sketches of one counter type, windows are aligned to multiples of k2
+     */
+    private final class Sketch {
+        private final long k1;
+        private final long windowMs;
+        private volatile Window current;
+        private volatile Window previous;
+
+        Sketch(final long k1, final long windowMs) {
+            this.k1 = k1;
+            this.windowMs = windowMs;
+            final long epoch = System.currentTimeMillis() / windowMs;
+            this.current = new Window(epoch);
+            this.previous = new Window(epoch - 1L);
+        }
+
+        boolean checkAndAdd(final long hash, final long value, final long nowMs) {
+            final long epoch = nowMs / windowMs;
+            Window w = current;
+            if (w.epoch != epoch)
+                w = rotate(epoch);
+            final Window p = previous;
+
+            final long estimate = w.estimate(hash) + value;
+            final long total = w.total.get() + value;
+            final double remaining = 1.0 - (double) (nowMs - epoch * windowMs) / windowMs;
+            final long previousEstimate = p.epoch == epoch - 1L ? p.estimate(hash) : 0L;
+            final long previousTotal = p.epoch == epoch - 1L ? p.total.get() : 0L;
+            final double lowerBound = estimate + remaining * previousEstimate - epsilon * (total + remaining * previousTotal);
+            if (lowerBound > denyFactor * k1)
+                return true;
+
+            // conservative update: only the minimum cells grow, reducing the overestimation
+            w.raise(hash, estimate);
+            w.total.addAndGet(value);
+            return false;
+        }
+
+        private synchronized Window rotate(final long epoch) {
+            final Window w = current;
+            if (w.epoch == epoch)
+                return w;
+            previous = w.epoch == epoch - 1L ? w : new Window(epoch - 1L);
+            final Window next = new Window(epoch);
+            current = next;
+            return next;
+        }
+    }
+
+    /**
+     * One count-min sketch of one window, `depth` rows of `width` counters
+     */
+    private final class Window {
+        private final long epoch;
+        private final AtomicLongArray cells = new AtomicLongArray(width * depth);
+        private final AtomicLong total = new AtomicLong();
+
+        Window(final long epoch) {
+            this.epoch = epoch;
+        }
+
+        private int cell(final long hash, final int row) {
+            // double hashing, the rows indexes are h1 + row * h2
+            final long h = hash + row * ((hash >>> 32) | 1L);
+            return row * width + (int) ((h & Long.MAX_VALUE) % width);
+        }
+
+        long estimate(final long hash) {
+            long min = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++)
+                min = Math.min(min, cells.get(cell(hash, row)));
+            return min;
+        }
+
+        void raise(final long hash, final long value) {
+            for (int row = 0; row < depth; row++) {
+                final int i = cell(hash, row);
+                long x = cells.get(i);
+                while (x < value && !cells.compareAndSet(i, x, value))
+                    x = cells.get(i);
+            }
+        }
+    }
+}
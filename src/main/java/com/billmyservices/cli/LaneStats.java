@@ -0,0 +1,102 @@
+package com.billmyservices.cli;
+
+/**
+ * Immutable snapshot of one request lane queue time metrics
+ */
+public final class LaneStats {
+
+    private final RequestLane lane;
+    private final int inFlight;
+    private final int queued;
+    private final long started;
+    private final long totalQueueTimeNanos;
+    private final long maxQueueTimeNanos;
+    private final long[] queueTimeBuckets;
+
+    LaneStats(final RequestLane lane, final int inFlight, final int queued, final long started, final long totalQueueTimeNanos, final long maxQueueTimeNanos, final long[] queueTimeBuckets) {
+        this.lane = lane;
+        this.inFlight = inFlight;
+        this.queued = queued;
+        this.started = started;
+        this.totalQueueTimeNanos = totalQueueTimeNanos;
+        this.maxQueueTimeNanos = maxQueueTimeNanos;
+        this.queueTimeBuckets = queueTimeBuckets;
+    }
+
+    /**
+     * The lane
+     *
+     * @return the lane
+     */
+    public RequestLane getLane() {
+        return lane;
+    }
+
+    /**
+     * The number of in-flight requests
+     *
+     * @return the number of in-flight requests
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * The number of waiting requests
+     *
+     * @return the number of waiting requests
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * The number of started (sent) requests
+     *
+     * @return the number of started requests
+     */
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * The mean time the started requests waited before being sent
+     *
+     * @return the mean queue time (nanoseconds)
+     */
+    public long getMeanQueueTimeNanos() {
+        return started == 0L ? 0L : totalQueueTimeNanos / started;
+    }
+
+    /**
+     * The maximum time one started request waited before being sent
+     *
+     * @return the maximum queue time (nanoseconds)
+     */
+    public long getMaxQueueTimeNanos() {
+        return maxQueueTimeNanos;
+    }
+
+    /**
+     * One upper bound (at most twice the real value) of the queue time percentile
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the queue time percentile upper bound (nanoseconds)
+     */
+    public long getQueueTimePercentileNanos(final double percentile) {
+        final long target = (long) Math.ceil(started * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0L;
+        for (int i = 0; i < queueTimeBuckets.length; i++) {
+            seen += queueTimeBuckets[i];
+            if (seen >= target && seen > 0L)
+                return Math.min(maxQueueTimeNanos, i == 0 ? 0L : (1L << i) - 1L);
+        }
+        return maxQueueTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: in-flight %d, queued %d, started %d, queue time mean %d ns, p99 %d ns, max %d ns",
+                lane, inFlight, queued, started, getMeanQueueTimeNanos(), getQueueTimePercentileNanos(99.0), maxQueueTimeNanos);
+    }
+}
@@ -0,0 +1,422 @@
+package com.billmyservices.cli;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+import org.asynchttpclient.ListenableFuture;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.billmyservices.cli.CounterVersion.AbsoluteCounter;
+
+/**
+ * Command line load generator, drives one configurable workload against any Bill My Services compatible endpoint
+ * through the real client code path and reports throughput and latency percentiles.
+ * <p>
+ * With `--rate` the load is open loop: requests are started at their intended times (whatever the responses are late)
+ * and latencies are measured from the intended start time, then they are free of coordinated omission. Otherwise the
+ * load is closed loop (`--concurrency` outstanding requests) and latencies are corrected using the warmup mean latency
+ * as the expected interval between requests.
+ * <p>
+ * Options (`--name=value`):
+ * <ul>
+ * <li>`url`, `user`, `secret`: the endpoint and credentials, by default, the `BMSClient.getDefault` settings</li>
+ * <li>`type`: one existing counter type code, by default, one temporary counter type is created (and deleted)</li>
+ * <li>`mix`: the operations weights, by default `post:80,read:15,readType:5`</li>
+ * <li>`keys`: the number of distinct counter codes, by default 10000</li>
+ * <li>`dist`: the counter codes distribution, `uniform` or `zipf` (default)</li>
+ * <li>`zipf`: the Zipf exponent, by default 1.0</li>
+ * <li>`rate`: the target rate (operations per second), if not set, the load is closed loop</li>
+ * <li>`concurrency`: the closed loop outstanding requests, or the open loop maximum, by default 16</li>
+ * <li>`warmup`, `duration`: the warmup and measured durations (seconds), by default 5 and 30</li>
+ * <li>`hlog`: the HdrHistogram log file to write (one interval histogram each second)</li>
+ * <li>`transport`: `ahc` (default) or `http2` (Java 11+)</li>
+ * </ul>
+ * HdrHistogram is one optional dependency of the client, then the jar has no `Main-Class`, run it with HdrHistogram in
+ * the class path (see the README).
+ */
+public final class LoadGenerator {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long MAX_LATENCY_NANOS = 60L * NANOS_PER_SECOND;
+    private static final long FAR_LIMIT = 1_000_000_000_000L;
+
+    private final BMSClient bms;
+    private final String counterTypeCode;
+    private final String[] counterCodes;
+    private final KeySampler keys;
+    private final Operation[] mix;
+    private final double rate;
+    private final int concurrency;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final Recorder recorder = new Recorder(3);
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong warmupLatencyNanos = new AtomicLong();
+    private final AtomicLong warmupCount = new AtomicLong();
+    private volatile boolean measuring = false;
+    private volatile boolean running = true;
+    private volatile long expectedIntervalNanos = 0L;
+
+    private LoadGenerator(final BMSClient bms, final String counterTypeCode, final Map<String, String> options) {
+        this.bms = bms;
+        this.counterTypeCode = counterTypeCode;
+        final int nkeys = Integer.parseInt(options.getOrDefault("keys", "10000"));
+        this.counterCodes = new String[nkeys];
+        for (int i = 0; i < nkeys; i++)
+            this.counterCodes[i] = "k" + i;
+        this.keys = "uniform".equals(options.getOrDefault("dist", "zipf"))
+                ? new KeySampler(nkeys)
+                : new KeySampler(nkeys, Double.parseDouble(options.getOrDefault("zipf", "1.0")));
+        this.mix = Operation.parseMix(options.getOrDefault("mix", "post:80,read:15,readType:5"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        this.warmupNanos = Long.parseLong(options.getOrDefault("warmup", "5")) * NANOS_PER_SECOND;
+        this.durationNanos = Long.parseLong(options.getOrDefault("duration", "30")) * NANOS_PER_SECOND;
+    }
+
+    /**
+     * Run one load test
+     *
+     * @param args the options, `--name=value`
+     * @throws Exception if the load test cannot be run
+     */
+    public static void main(final String... args) throws Exception {
+        final Map<String, String> options = parseOptions(args);
+        try (final Transport transport = newTransport(options.getOrDefault("transport", "ahc"))) {
+            run(transport, options.getOrDefault("url", BMSClient.getDefaultURL()), options);
+        }
+    }
+
+    /**
+     * Run one load test using the given transport
+     *
+     * @param transport the http transport
+     * @param url       the Bill My Service endpoint
+     * @param options   the options
+     * @return the measured latencies, their start and end timestamps are the measured interval
+     * @throws Exception if the load test cannot be run
+     */
+    static Histogram run(final Transport transport, final String url, final Map<String, String> options) throws Exception {
+        final BMSClient bms = new BMSClient(
+                url,
+                options.containsKey("user") ? options.get("user") : BMSClient.getSettingValue(BMSClient.SETTING_NAME_USERID),
+                options.containsKey("secret") ? options.get("secret") : BMSClient.getSettingValue(BMSClient.SETTING_NAME_SECRETKEY),
+                transport);
+
+        final String counterTypeCode = options.containsKey("type") ? options.get("type") : createCounterType(bms);
+
+        try (final PrintStream hlog = options.containsKey("hlog") ? new PrintStream(new FileOutputStream(options.get("hlog"))) : null) {
+            return new LoadGenerator(bms, counterTypeCode, options).run(hlog == null ? null : new HistogramLogWriter(hlog));
+        } finally {
+            if (!options.containsKey("type"))
+                bms.deleteCounterType(counterTypeCode).get();
+        }
+    }
+
+    /**
+     * Create one transport by name, `ahc` (HTTP/1.1 connection pool) or `http2` (Java 11+, multiplexed connections)
+     *
+     * @param name the transport name
+     * @return the transport
+     */
+    static Transport newTransport(final String name) {
+        switch (name) {
+            case "ahc":
+                return new AhcTransport(new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder()
+                        .setThreadPoolName("bms-load")
+                        .build()));
+            case "http2":
+                try {
+                    return (Transport) Class.forName("com.billmyservices.cli.JdkHttpTransport").getConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("the `http2` transport requires Java 11+", e);
+                }
+            default:
+                throw new IllegalArgumentException(String.format("expected `ahc` or `http2` transport but `%s`", name));
+        }
+    }
+
+    private static String createCounterType(final BMSClient bms) throws ExecutionException, InterruptedException {
+        final CounterType counterType = new CounterType(UUID.randomUUID().toString(), "load generator", 0L, -FAR_LIMIT, FAR_LIMIT, AbsoluteCounter);
+        final Result<Boolean> r = bms.addCounterType(counterType).get();
+        if (!r.isSuccess())
+            throw new IllegalStateException(String.format("cannot create the load counter type: %s", r.getErrorMessage()));
+        return counterType.getCode();
+    }
+
+    static Map<String, String> parseOptions(final String... args) {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException(String.format("expected `--name=value` option but `%s`", arg));
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private Histogram run(final HistogramLogWriter hlog) throws InterruptedException {
+        final Thread driver = new Thread(rate > 0.0 ? this::openLoop : this::closedLoop, "bms-load-driver");
+        driver.start();
+
+        System.out.printf("warming up %d s...%n", warmupNanos / NANOS_PER_SECOND);
+        Thread.sleep(warmupNanos / 1_000_000L);
+        final long count = warmupCount.get();
+        expectedIntervalNanos = count == 0L ? 0L : warmupLatencyNanos.get() / count;
+        recorder.getIntervalHistogram();
+        errors.set(0L);
+        measuring = true;
+
+        final long startMs = System.currentTimeMillis();
+        if (hlog != null) {
+            hlog.outputLogFormatVersion();
+            hlog.outputStartTime(startMs);
+            hlog.outputLegend();
+        }
+
+        final Histogram total = new Histogram(MAX_LATENCY_NANOS, 3);
+        System.out.printf("%8s %12s %10s %10s %10s %10s %10s %8s%n", "time(s)", "ops/s", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "errors");
+        final long t0 = System.nanoTime();
+        long last = t0;
+        while (last - t0 < durationNanos) {
+            Thread.sleep(1_000L);
+            final long now = System.nanoTime();
+            final Histogram interval = recorder.getIntervalHistogram();
+            interval.setStartTimeStamp(startMs + (last - t0) / 1_000_000L);
+            interval.setEndTimeStamp(startMs + (now - t0) / 1_000_000L);
+            total.add(interval);
+            if (hlog != null)
+                hlog.outputIntervalHistogram(interval);
+            report(String.format("%8.1f", (now - t0) / 1e9), interval, now - last);
+            last = now;
+        }
+        running = false;
+        driver.join();
+
+        System.out.printf("%nsummary%n");
+        report("total", total, last - t0);
+        System.out.printf("mean %.3f ms%n%n", total.getMean() / 1e6);
+        total.outputPercentileDistribution(System.out, 1e6);
+        total.setStartTimeStamp(startMs);
+        total.setEndTimeStamp(startMs + (last - t0) / 1_000_000L);
+        return total;
+    }
+
+    private void report(final String label, final Histogram h, final long elapsedNanos) {
+        System.out.printf("%8s %12.1f %10.3f %10.3f %10.3f %10.3f %10.3f %8d%n",
+                label,
+                h.getTotalCount() * 1e9 / elapsedNanos,
+                h.getValueAtPercentile(50.0) / 1e6,
+                h.getValueAtPercentile(90.0) / 1e6,
+                h.getValueAtPercentile(99.0) / 1e6,
+                h.getValueAtPercentile(99.9) / 1e6,
+                h.getMaxValue() / 1e6,
+                errors.get());
+    }
+
+    /**
+     * Start the requests at their intended times, at most `concurrency` outstanding requests (later ones wait, but
+     * their latency still counts from their intended start time)
+     */
+    private void openLoop() {
+        final Semaphore outstanding = new Semaphore(concurrency);
+        try {
+            openLoop(outstanding);
+        } finally {
+            drain(outstanding);
+        }
+    }
+
+    private void openLoop(final Semaphore outstanding) {
+        final double periodNanos = NANOS_PER_SECOND / rate;
+        final long t0 = System.nanoTime();
+        for (long i = 0L; running; i++) {
+            final long intended = t0 + (long) (i * periodNanos);
+            final long wait = intended - System.nanoTime();
+            if (wait > 0L)
+                LockSupport.parkNanos(wait);
+            outstanding.acquireUninterruptibly();
+            issue(intended, outstanding::release);
+        }
+    }
+
+    /**
+     * Keep `concurrency` outstanding requests, each completed request releases one slot and the driver thread starts
+     * the next one (never the completing thread, then synchronous completions do not nest)
+     */
+    private void closedLoop() {
+        final Semaphore outstanding = new Semaphore(concurrency);
+        try {
+            while (running) {
+                outstanding.acquireUninterruptibly();
+                issue(System.nanoTime(), outstanding::release);
+            }
+        } finally {
+            drain(outstanding);
+        }
+    }
+
+    /**
+     * Wait for the outstanding requests (at most the maximum recorded latency), then the temporary counter type is not
+     * deleted under them
+     *
+     * @param outstanding the driver loop slots
+     */
+    private void drain(final Semaphore outstanding) {
+        try {
+            if (!outstanding.tryAcquire(concurrency, MAX_LATENCY_NANOS, TimeUnit.NANOSECONDS))
+                System.out.printf("%d requests still outstanding after %d s%n",
+                        concurrency - outstanding.availablePermits(), MAX_LATENCY_NANOS / NANOS_PER_SECOND);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start one random operation
+     *
+     * @param intended   the intended start time (nanoseconds)
+     * @param onComplete invoked when completed, after the latency was recorded
+     */
+    private void issue(final long intended, final Runnable onComplete) {
+        final String counterCode = counterCodes[keys.next()];
+        final Operation op = pick();
+        final ListenableFuture<? extends Result<?>> f;
+        try {
+            f = op.start(bms, counterTypeCode, counterCode);
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            onComplete.run();
+            return;
+        }
+        f.addListener(() -> {
+            final long latency = Math.min(MAX_LATENCY_NANOS, System.nanoTime() - intended);
+            try {
+                if (!f.get().isSuccess())
+                    errors.incrementAndGet();
+            } catch (InterruptedException | ExecutionException e) {
+                errors.incrementAndGet();
+            }
+            if (!measuring) {
+                warmupLatencyNanos.addAndGet(latency);
+                warmupCount.incrementAndGet();
+            } else if (rate <= 0.0 && expectedIntervalNanos > 0L)
+                recorder.recordValueWithExpectedInterval(latency, expectedIntervalNanos);
+            else
+                recorder.recordValue(latency);
+            onComplete.run();
+        }, Runnable::run);
+    }
+
+    private Operation pick() {
+        final int total = mix[mix.length - 1].cumulativeWeight;
+        final int x = ThreadLocalRandom.current().nextInt(total);
+        for (final Operation op : mix)
+            if (x < op.cumulativeWeight)
+                return op;
+        return mix[mix.length - 1];
+    }
+
+    /**
+     * One weighted operation of the mix
+     */
+    static final class Operation {
+        private final String name;
+        private final int cumulativeWeight;
+
+        Operation(final String name, final int cumulativeWeight) {
+            this.name = name;
+            this.cumulativeWeight = cumulativeWeight;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getCumulativeWeight() {
+            return cumulativeWeight;
+        }
+
+        ListenableFuture<? extends Result<?>> start(final BMSClient bms, final String counterTypeCode, final String counterCode) {
+            switch (name) {
+                case "post":
+                    return bms.postCounter(counterTypeCode, counterCode, 1L);
+                case "read":
+                    return bms.readCounter(counterTypeCode, counterCode);
+                default:
+                    return bms.readCounterType(counterTypeCode);
+            }
+        }
+
+        static Operation[] parseMix(final String mix) {
+            final String[] xs = mix.split(",");
+            final Operation[] ops = new Operation[xs.length];
+            int cumulative = 0;
+            for (int i = 0; i < xs.length; i++) {
+                final String[] kv = xs[i].split(":");
+                if (kv.length != 2 || !(kv[0].equals("post") || kv[0].equals("read") || kv[0].equals("readType")))
+                    throw new IllegalArgumentException(String.format("expected `post|read|readType:weight` but `%s`", xs[i]));
+                cumulative += Integer.parseInt(kv[1]);
+                ops[i] = new Operation(kv[0], cumulative);
+            }
+            if (cumulative <= 0)
+                throw new IllegalArgumentException("the operations mix total weight must be positive");
+            return ops;
+        }
+    }
+
+    /**
+     * Uniform or Zipf keys sampler, the Zipf cumulative distribution is precomputed and sampled by binary search
+     */
+    static final class KeySampler {
+        private final int n;
+        private final double[] cdf;
+
+        KeySampler(final int n) {
+            this.n = n;
+            this.cdf = null;
+        }
+
+        KeySampler(final int n, final double exponent) {
+            this.n = n;
+            this.cdf = new double[n];
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, exponent);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++)
+                cdf[i] /= sum;
+        }
+
+        int next() {
+            final ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            if (cdf == null)
+                return rnd.nextInt(n);
+            final double u = rnd.nextDouble();
+            int lo = 0;
+            int hi = n - 1;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.billmyservices.cli;
+
+/**
+ * Reusable counter state holder, not thread safe. One holder can receive many counter reads (e.g. one for each
+ * thread) without creating any object.
+ */
+public final class MutableCounter implements CounterSink {
+    private long value;
+    private long timeRef;
+
+    @Override
+    public void accept(final long value, final long timeRef) {
+        this.value = value;
+        this.timeRef = timeRef;
+    }
+
+    /**
+     * The last received counter value
+     *
+     * @return The last received counter value
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * The last received UNIX EPOCH time
+     *
+     * @return The last received UNIX EPOCH time
+     */
+    public long getTimeRef() {
+        return timeRef;
+    }
+}
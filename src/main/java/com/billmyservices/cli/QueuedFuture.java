@@ -0,0 +1,118 @@
+package com.billmyservices.cli;
+
+import org.asynchttpclient.ListenableFuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Future of one request which could be waiting to be sent, once sent, it follows the transport future.
+ *
+ * @param <V> the result type
+ */
+final class QueuedFuture<V> implements ListenableFuture<V> {
+
+    private final CompletableFuture<V> result = new CompletableFuture<>();
+    private volatile CompletableFuture<V> inner = null;
+
+    /**
+     * Follow the sent request future
+     *
+     * @param inner     the transport future
+     * @param onFailure map the transport failure to one result, if null is returned, the failure is propagated
+     */
+    void follow(final CompletableFuture<V> inner, final Function<Throwable, V> onFailure) {
+        this.inner = inner;
+        if (result.isCancelled())
+            inner.cancel(true);
+        inner.whenComplete((v, e) -> {
+            if (e == null)
+                result.complete(v);
+            else
+                fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e, onFailure);
+        });
+    }
+
+    private void fail(final Throwable t, final Function<Throwable, V> onFailure) {
+        final V value = onFailure.apply(t);
+        if (value == null)
+            result.completeExceptionally(t);
+        else
+            result.complete(value);
+    }
+
+    /**
+     * Complete without sending any request
+     *
+     * @param value the result
+     */
+    void complete(final V value) {
+        result.complete(value);
+    }
+
+    @Override
+    public void done() {
+        // completion is driven by the followed future
+    }
+
+    @Override
+    public void abort(final Throwable t) {
+        result.completeExceptionally(t);
+        final CompletableFuture<V> f = inner;
+        if (f != null)
+            f.cancel(true);
+    }
+
+    @Override
+    public void touch() {
+        // timeouts are managed by the transport
+    }
+
+    @Override
+    public ListenableFuture<V> addListener(final Runnable listener, final Executor exec) {
+        if (exec == null)
+            result.whenComplete((v, e) -> listener.run());
+        else
+            result.whenCompleteAsync((v, e) -> listener.run(), exec);
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<V> toCompletableFuture() {
+        return result;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        final boolean cancelled = result.cancel(mayInterruptIfRunning);
+        final CompletableFuture<V> f = inner;
+        if (cancelled && f != null)
+            f.cancel(mayInterruptIfRunning);
+        return cancelled;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    @Override
+    public V get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+}
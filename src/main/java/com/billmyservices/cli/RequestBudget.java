@@ -0,0 +1,109 @@
+package com.billmyservices.cli;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Thread safe in-flight requests budget shared by many request schedulers (e.g. one for each tenant), then all of them
+ * together never exceed the shared connections. When the budget is exhausted, the schedulers with waiting requests are
+ * served round-robin, one request each time, then one busy tenant cannot starve the others.
+ * <p>
+ * All the schedulers sharing one budget are guarded by the budget monitor.
+ */
+public final class RequestBudget {
+
+    private final int maxInFlight;
+    private final Queue<RequestScheduler> ready = new ArrayDeque<>();
+    private int inFlight = 0;
+    private boolean draining = false;
+
+    /**
+     * Create a new one shared budget.
+     *
+     * @param maxInFlight the maximum number of concurrent in-flight requests of all the schedulers
+     */
+    public RequestBudget(final int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("`maxInFlight` must be positive");
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * The maximum number of concurrent in-flight requests of all the schedulers
+     *
+     * @return the maximum number of concurrent in-flight requests
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * The current number of in-flight requests of all the schedulers
+     *
+     * @return the current number of in-flight requests
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * One scheduler has requests allowed to start by its own lanes, serve it in turn
+     *
+     * @param scheduler the scheduler
+     */
+    void ready(final RequestScheduler scheduler) {
+        ready.add(scheduler);
+    }
+
+    /**
+     * Take one slot for one request starting without waiting, only if no scheduler is waiting
+     *
+     * @return true if the slot was taken
+     */
+    boolean tryAcquire() {
+        if (draining || !ready.isEmpty() || inFlight >= maxInFlight)
+            return false;
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * One request of one scheduler was released (completed or discarded)
+     */
+    void released() {
+        inFlight--;
+    }
+
+    /**
+     * Start draining the schedulers, only one caller drains them at the same time
+     *
+     * @return true if the caller must drain, false if one drain is already running
+     */
+    boolean startDraining() {
+        if (draining)
+            return false;
+        draining = true;
+        return true;
+    }
+
+    /**
+     * Take the next request allowed to start (round-robin over the ready schedulers), if none, the draining ends
+     *
+     * @return the next request or null if none
+     */
+    synchronized RequestScheduler.Pending next() {
+        final long now = System.nanoTime();
+        while (inFlight < maxInFlight) {
+            final RequestScheduler scheduler = ready.poll();
+            if (scheduler == null)
+                break;
+            final RequestScheduler.Pending p = scheduler.take(now);
+            if (p != null) {
+                inFlight++;
+                return p;
+            }
+        }
+        draining = false;
+        return null;
+    }
+}
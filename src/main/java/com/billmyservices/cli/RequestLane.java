@@ -0,0 +1,17 @@
+package com.billmyservices.cli;
+
+/**
+ * Request priority lanes, each lane has its own in-flight budget (see `RequestScheduler`)
+ */
+public enum RequestLane {
+
+    /**
+     * Latency critical counter checks (`postCounter` and `readCounter`), always scheduled first
+     */
+    ADMISSION,
+
+    /**
+     * Counter types management and bulk operations, only scheduled when no admission request is waiting
+     */
+    ADMIN
+}
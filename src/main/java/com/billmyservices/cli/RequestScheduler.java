@@ -0,0 +1,299 @@
+package com.billmyservices.cli;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Thread safe in-flight requests limiter with priority lanes, requests over their lane limit wait (FIFO) until one
+ * in-flight request of the same lane completes.
+ * <p>
+ * Each lane has its own in-flight budget, with HTTP/1.1 one in-flight request holds one connection, then the lane
+ * budgets are also the lane connection budgets. Admission requests always go first: one admin request is only sent when
+ * no admission request is waiting, so bulk admin work is throttled instead of competing with the counter checks.
+ * <p>
+ * Each client (tenant) should use its own scheduler, then one busy tenant only queues its own requests and cannot take
+ * more than its own share of the (shared) http connections. Schedulers sharing one `RequestBudget` never exceed it
+ * together and, when it is exhausted, they are served round-robin.
+ */
+public final class RequestScheduler {
+
+    private final Lane admission;
+    private final Lane admin;
+    private final RequestBudget budget;
+    private boolean ready = false;
+
+    /**
+     * Create a new one request scheduler, admin requests are limited to one quarter of the admission requests.
+     *
+     * @param maxInFlight the maximum number of concurrent in-flight admission requests
+     */
+    public RequestScheduler(final int maxInFlight) {
+        this(maxInFlight, Math.max(1, maxInFlight / 4));
+    }
+
+    /**
+     * Create a new one request scheduler.
+     *
+     * @param admissionMaxInFlight the maximum number of concurrent in-flight admission requests
+     * @param adminMaxInFlight     the maximum number of concurrent in-flight admin requests
+     */
+    public RequestScheduler(final int admissionMaxInFlight, final int adminMaxInFlight) {
+        this(admissionMaxInFlight, adminMaxInFlight, new RequestBudget(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Create a new one request scheduler sharing one in-flight budget with other schedulers.
+     *
+     * @param admissionMaxInFlight the maximum number of concurrent in-flight admission requests
+     * @param adminMaxInFlight     the maximum number of concurrent in-flight admin requests
+     * @param budget               the shared in-flight budget
+     */
+    public RequestScheduler(final int admissionMaxInFlight, final int adminMaxInFlight, final RequestBudget budget) {
+        if (admissionMaxInFlight < 1 || adminMaxInFlight < 1)
+            throw new IllegalArgumentException("`admissionMaxInFlight` and `adminMaxInFlight` must be positive");
+        this.admission = new Lane(admissionMaxInFlight);
+        this.admin = new Lane(adminMaxInFlight);
+        this.budget = budget;
+    }
+
+    /**
+     * Start the request now if its lane (and the shared budget) allows it, otherwise, enqueue it. The starter returns
+     * true if the request was sent, then `release` must be called when it completes, or false if it was discarded
+     * (e.g. cancelled).
+     *
+     * @param lane    the request lane
+     * @param request the request starter
+     * @return the waiting request (could be started meanwhile), null if it was started immediately
+     */
+    Pending submit(final RequestLane lane, final BooleanSupplier request) {
+        final Lane l = lane(lane);
+        final Pending pending;
+        synchronized (budget) {
+            if (l.queue.isEmpty() && l.inFlight < l.maxInFlight && (l == admission || admission.queue.isEmpty()) && budget.tryAcquire()) {
+                l.started(0L);
+                pending = null;
+            } else {
+                pending = new Pending(this, l, request, System.nanoTime());
+                l.queue.add(pending);
+                markReady();
+                if (!budget.startDraining())
+                    return pending;
+            }
+        }
+        if (pending != null)
+            drain();
+        else if (!request.getAsBoolean())
+            release(lane);
+        return pending;
+    }
+
+    /**
+     * One started request was completed, start the next queued ones if any.
+     * <p>
+     * Requests may complete (then release) synchronously while they are started, e.g. when the transport fails
+     * immediately, then only one caller drains the queues (loop) and the nested calls only release their request.
+     *
+     * @param lane the completed request lane
+     */
+    void release(final RequestLane lane) {
+        synchronized (budget) {
+            lane(lane).inFlight--;
+            budget.released();
+            markReady();
+            if (!budget.startDraining())
+                return;
+        }
+        drain();
+    }
+
+    private void drain() {
+        Pending next;
+        while ((next = budget.next()) != null)
+            if (!next.request.getAsBoolean())
+                synchronized (budget) {
+                    next.lane.inFlight--;
+                    budget.released();
+                    next.scheduler.markReady();
+                }
+    }
+
+    /**
+     * Queue this scheduler into the shared budget if one of its requests is allowed to start, guarded by the budget
+     */
+    private void markReady() {
+        if (!ready && (startable(admission) || (admission.queue.isEmpty() && startable(admin)))) {
+            ready = true;
+            budget.ready(this);
+        }
+    }
+
+    private static boolean startable(final Lane lane) {
+        return lane.inFlight < lane.maxInFlight && !lane.queue.isEmpty();
+    }
+
+    /**
+     * Take the next request allowed to start by the lanes, then, if more are allowed, queue again this scheduler (to
+     * be served in turn), guarded by the budget
+     *
+     * @param now the current time (nanoseconds)
+     * @return the next request or null if none
+     */
+    Pending take(final long now) {
+        ready = false;
+        Pending p = null;
+        if (startable(admission))
+            p = admission.queue.poll();
+        else if (admission.queue.isEmpty() && startable(admin))
+            p = admin.queue.poll();
+        if (p != null) {
+            p.taken = true;
+            purge(p.lane);
+            p.lane.started(now - p.enqueuedAt);
+            markReady();
+        }
+        return p;
+    }
+
+    /**
+     * Drop the cancelled requests at the head of one lane queue, then one non empty queue head is always waiting,
+     * guarded by the budget
+     *
+     * @param lane the lane
+     */
+    private static void purge(final Lane lane) {
+        Pending p;
+        while ((p = lane.queue.peek()) != null && p.cancelled) {
+            lane.queue.poll();
+            lane.cancelled--;
+        }
+    }
+
+    private Lane lane(final RequestLane lane) {
+        return lane == RequestLane.ADMIN ? admin : admission;
+    }
+
+    /**
+     * The maximum number of concurrent in-flight requests of one lane
+     *
+     * @param lane the lane
+     * @return the maximum number of concurrent in-flight requests
+     */
+    public int getMaxInFlight(final RequestLane lane) {
+        return lane(lane).maxInFlight;
+    }
+
+    /**
+     * The current number of in-flight requests (all lanes)
+     *
+     * @return the current number of in-flight requests
+     */
+    public int getInFlight() {
+        synchronized (budget) {
+            return admission.inFlight + admin.inFlight;
+        }
+    }
+
+    /**
+     * The current number of waiting requests (all lanes)
+     *
+     * @return the current number of waiting requests
+     */
+    public int getQueued() {
+        synchronized (budget) {
+            return admission.queued() + admin.queued();
+        }
+    }
+
+    /**
+     * The current metrics of one lane
+     *
+     * @param lane the lane
+     * @return the lane metrics snapshot
+     */
+    public LaneStats getStats(final RequestLane lane) {
+        final Lane l = lane(lane);
+        synchronized (budget) {
+            return new LaneStats(lane, l.inFlight, l.queued(), l.started, l.totalQueueTimeNanos, l.maxQueueTimeNanos, l.queueTimeBuckets.clone());
+        }
+    }
+
+    /**
+     * The shared in-flight budget
+     *
+     * @return the shared in-flight budget
+     */
+    public RequestBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * One waiting request, guarded by the budget monitor
+     */
+    static final class Pending {
+        private final RequestScheduler scheduler;
+        private final Lane lane;
+        private final BooleanSupplier request;
+        private final long enqueuedAt;
+        private boolean taken = false;
+        private boolean cancelled = false;
+
+        Pending(final RequestScheduler scheduler, final Lane lane, final BooleanSupplier request, final long enqueuedAt) {
+            this.scheduler = scheduler;
+            this.lane = lane;
+            this.request = request;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        /**
+         * Drop the request from its queue, unless it was already started
+         *
+         * @return true if the request was dropped (it will never be started), false if it was already started
+         */
+        boolean cancel() {
+            synchronized (scheduler.budget) {
+                if (taken || cancelled)
+                    return false;
+                cancelled = true;
+                lane.cancelled++;
+                purge(lane);
+                // one admission request less could allow admin requests to start
+                scheduler.markReady();
+                if (!scheduler.budget.startDraining())
+                    return true;
+            }
+            scheduler.drain();
+            return true;
+        }
+    }
+
+    /**
+     * One lane state, guarded by the budget monitor
+     */
+    private static final class Lane {
+        private final int maxInFlight;
+        private final Queue<Pending> queue = new ArrayDeque<>();
+        private final long[] queueTimeBuckets = new long[64];
+        private int inFlight = 0;
+        private int cancelled = 0;
+        private long started = 0L;
+        private long totalQueueTimeNanos = 0L;
+        private long maxQueueTimeNanos = 0L;
+
+        Lane(final int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        int queued() {
+            return queue.size() - cancelled;
+        }
+
+        void started(final long queueTimeNanos) {
+            inFlight++;
+            started++;
+            totalQueueTimeNanos += queueTimeNanos;
+            maxQueueTimeNanos = Math.max(maxQueueTimeNanos, queueTimeNanos);
+            queueTimeBuckets[64 - Long.numberOfLeadingZeros(queueTimeNanos) & 63]++;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.billmyservices.cli;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming http response handler (see `Transport`)
+ *
+ * @param <T> the handler result type
+ */
+public interface ResponseHandler<T> {
+
+    /**
+     * The response status was received, if the request is replayed (e.g. by the http client retries), it is received
+     * again and the body parts received so far must be discarded
+     *
+     * @param statusCode the http status code
+     */
+    void onStatus(int statusCode);
+
+    /**
+     * One response body part was received, the buffer is only valid during this call
+     *
+     * @param bodyPart the body part
+     */
+    void onBodyPart(ByteBuffer bodyPart);
+
+    /**
+     * The response was fully received
+     *
+     * @return the handler result
+     * @throws Exception if the response cannot be handled
+     */
+    T onCompleted() throws Exception;
+}
@@ -27,6 +27,15 @@ public interface Result<T> {
      */
     String getErrorMessage();
 
+    /**
+     * Determine if the operation failed because its deadline expired (then, it may not have been sent)
+     *
+     * @return true if the deadline expired, false otherwise
+     */
+    default boolean isDeadlineExceeded() {
+        return false;
+    }
+
     /**
      * When success, return the returned value
      *
@@ -128,4 +137,35 @@ class Failed<T> implements Result<T> {
     public Result<T> guard(Predicate<T> mustBeTrue, Function<T, String> orFailWith) {
         return this;
     }
-}
\ No newline at end of file
+}
+
+class DeadlineExceeded<T> extends Failed<T> {
+
+    DeadlineExceeded() {
+        super("deadline exceeded");
+    }
+
+    @Override
+    public boolean isDeadlineExceeded() {
+        return true;
+    }
+}
+
+class HttpFailed<T> extends Failed<T> {
+
+    private final int statusCode;
+
+    HttpFailed(final int statusCode, final String format, final Object... args) {
+        super(format, args);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * The unexpected http status
+     *
+     * @return the http status code
+     */
+    int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,24 @@
+package com.billmyservices.cli;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Http transport used by `BMSClient` to send its (already signed) requests.
+ * <p>
+ * Implementations must be thread safe and non blocking. The response handler methods are invoked sequentially, status
+ * first, then the body parts and then the completion. If the request timeout expires, the returned future must fail
+ * with one `java.util.concurrent.TimeoutException`, and cancelling the returned future should abort the request.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Send one request
+     *
+     * @param request the request to send
+     * @param handler the response handler
+     * @param <T>     the handler result type
+     * @return the future handler result
+     */
+    <T> CompletableFuture<T> send(TransportRequest request, ResponseHandler<T> handler);
+}
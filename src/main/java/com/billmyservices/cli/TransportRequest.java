@@ -0,0 +1,95 @@
+package com.billmyservices.cli;
+
+/**
+ * Immutable http request, without body, to be sent by one `Transport`
+ */
+public final class TransportRequest {
+
+    private final String method;
+    private final String url;
+    private final String[] headers;
+    private final long timeoutMs;
+
+    /**
+     * Create a new one request
+     *
+     * @param method    the http method
+     * @param url       the request url
+     * @param headers   the headers as consecutive name and value pairs
+     * @param timeoutMs the request timeout (milliseconds), zero to use the transport default
+     */
+    public TransportRequest(final String method, final String url, final String[] headers, final long timeoutMs) {
+        if (headers.length % 2 != 0)
+            throw new IllegalArgumentException("`headers` must be name and value pairs");
+        this.method = method;
+        this.url = url;
+        this.headers = headers;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Copy this request with other timeout
+     *
+     * @param timeoutMs the request timeout (milliseconds), zero to use the transport default
+     * @return the new request
+     */
+    public TransportRequest withTimeout(final long timeoutMs) {
+        return new TransportRequest(method, url, headers, timeoutMs);
+    }
+
+    /**
+     * The http method
+     *
+     * @return The http method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * The request url
+     *
+     * @return The request url
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * The number of headers
+     *
+     * @return The number of headers
+     */
+    public int getHeaderCount() {
+        return headers.length / 2;
+    }
+
+    /**
+     * One header name
+     *
+     * @param i the header index
+     * @return the header name
+     */
+    public String getHeaderName(final int i) {
+        return headers[2 * i];
+    }
+
+    /**
+     * One header value
+     *
+     * @param i the header index
+     * @return the header value
+     */
+    public String getHeaderValue(final int i) {
+        return headers[2 * i + 1];
+    }
+
+    /**
+     * The request timeout (milliseconds), zero to use the transport default
+     *
+     * @return The request timeout
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+}
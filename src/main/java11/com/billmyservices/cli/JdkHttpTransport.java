@@ -0,0 +1,130 @@
+package com.billmyservices.cli;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Java 11+ `java.net.http` transport using HTTP/2 (`h2c` for `http` endpoints), then many concurrent requests are
+ * multiplexed over a few connections. If the server does not support HTTP/2, HTTP/1.1 is used.
+ * <p>
+ * Only available when built and run with Java 11 or newer (see the `java11` build profile).
+ */
+public final class JdkHttpTransport implements Transport {
+
+    private final HttpClient httpClient;
+
+    /**
+     * Create a new one HTTP/2 transport
+     */
+    public JdkHttpTransport() {
+        this(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build());
+    }
+
+    /**
+     * Create a new one transport
+     *
+     * @param httpClient the http client to use
+     */
+    public JdkHttpTransport(final HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> send(final TransportRequest request, final ResponseHandler<T> handler) {
+        final HttpRequest.Builder rq = HttpRequest.newBuilder(URI.create(request.getUrl()))
+                .method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+        for (int i = 0; i < request.getHeaderCount(); i++)
+            rq.header(request.getHeaderName(i), request.getHeaderValue(i));
+        if (request.getTimeoutMs() > 0L)
+            rq.timeout(Duration.ofMillis(request.getTimeoutMs()));
+
+        final CompletableFuture<HttpResponse<T>> sent = httpClient.sendAsync(rq.build(), info -> {
+            handler.onStatus(info.statusCode());
+            return HttpResponse.BodySubscribers.fromSubscriber(new BodyPartsSubscriber(handler), s -> {
+                try {
+                    return handler.onCompleted();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+        });
+
+        final CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(final boolean mayInterruptIfRunning) {
+                sent.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        sent.whenComplete((r, e) -> {
+            if (e == null) {
+                future.complete(r.body());
+                return;
+            }
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof HttpTimeoutException) {
+                final TimeoutException timeout = new TimeoutException(cause.getMessage());
+                timeout.initCause(cause);
+                future.completeExceptionally(timeout);
+            } else
+                future.completeExceptionally(cause);
+        });
+        return future;
+    }
+
+    /**
+     * Return the http client.
+     *
+     * @return the http client.
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    @Override
+    public void close() {
+        // java.net.http clients release their resources when no longer referenced
+    }
+
+    /**
+     * Forward the body parts to the response handler as they arrive
+     */
+    private static final class BodyPartsSubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+        private final ResponseHandler<?> handler;
+
+        BodyPartsSubscriber(final ResponseHandler<?> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(final List<ByteBuffer> parts) {
+            for (final ByteBuffer part : parts)
+                handler.onBodyPart(part);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            // reported by the response future
+        }
+
+        @Override
+        public void onComplete() {
+            // the finisher completes the handler
+        }
+    }
+}
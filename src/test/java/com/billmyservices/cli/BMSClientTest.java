@@ -6,16 +6,25 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.opentest4j.AssertionFailedError;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 
 import static com.billmyservices.cli.CounterVersion.AbsoluteCounter;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -119,6 +128,160 @@ class BMSClientTest {
         assertTrue(bms.deleteCounterType(counterType.getCode()).get().isSuccess());
     }
 
+    private void watchTest() throws ExecutionException, InterruptedException {
+
+        final BMSClient bms = BMSClient.getDefault();
+
+        final CounterType counterType = rndCounterType();
+
+        final String counterCode = UUID.randomUUID().toString();
+
+        final BlockingQueue<Counter> changes = new LinkedBlockingQueue<>();
+
+        assertTrue(bms.addCounterType(counterType).get().isSuccess());
+
+        try (final CounterWatcher.Subscription ignored = bms.watch(counterType.getCode(), counterCode, (type, counter) -> changes.add(counter))) {
+
+            // the first state is always notified
+            final Counter first = changes.poll(5, SECONDS);
+            assertTrue(first != null && first.getValue() == counterType.getValue(), "should be notified the initial counter state");
+
+            assertTrue(bms.postCounter(counterType.getCode(), counterCode, 3L).get().isSuccess());
+
+            final Counter second = changes.poll(5, SECONDS);
+            assertTrue(second != null && second.getValue() == counterType.getValue() + 3L, "should be notified the counter change");
+
+        }
+
+        assertTrue(bms.deleteCounterType(counterType.getCode()).get().isSuccess());
+    }
+
+    private void sinkTest() throws ExecutionException, InterruptedException {
+
+        final BMSClient bms = BMSClient.getDefault();
+
+        final CounterType counterType = rndCounterType();
+
+        final String counterCode = UUID.randomUUID().toString();
+
+        assertTrue(bms.addCounterType(counterType).get().isSuccess());
+
+        assertTrue(bms.postCounter(counterType.getCode(), counterCode, 3L).get().isSuccess());
+
+        // one holder should be reusable for many reads
+        final MutableCounter counter = new MutableCounter();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bms.readCounterInto(counterType.getCode(), counterCode, counter).get().isSuccess());
+            assertTrue(counter.getValue() == counterType.getValue() + 3L, "should decode the counter value");
+        }
+
+        final List<String> codes = new ArrayList<>();
+        assertTrue(bms.readCounterTypeInto(counterType.getCode(), (code, value, timeRef) -> codes.add(code.toString())).get().isSuccess());
+        assertTrue(codes.contains(counterCode), "should decode the counter type counters");
+
+        assertTrue(bms.deleteCounterType(counterType.getCode()).get().isSuccess());
+    }
+
+    private void catalogTest() throws ExecutionException, InterruptedException, IOException {
+
+        final BMSClient bms = BMSClient.getDefault();
+
+        final CounterType counterType = rndCounterType();
+
+        final Path snapshot = Files.createTempFile("bms-catalog", ".bin");
+
+        try {
+            assertTrue(bms.addCounterType(counterType).get().isSuccess());
+
+            final CounterTypeCatalog catalog = CounterTypeCatalog.load(bms, snapshot);
+            final CounterTypeCatalog.Changes changes = catalog.revalidate().get().get();
+            assertTrue(changes.getAdded().contains(counterType.getCode()), "new counter types should be added");
+            assertTrue(catalog.revalidate().get().get().isEmpty(), "nothing should change");
+
+            // one new instance should know the counter type without any request
+            final CounterTypeCatalog restarted = CounterTypeCatalog.load(bms, snapshot);
+            assertTrue(restarted.get(counterType.getCode()) != null && !restarted.isRevalidated(), "the snapshot should be loaded");
+
+            assertTrue(bms.deleteCounterType(counterType.getCode()).get().isSuccess());
+            assertTrue(restarted.revalidate().get().get().getRemoved().contains(counterType.getCode()), "deleted counter types should be removed");
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    private void registryTest() throws IOException {
+
+        final String userId = System.getProperty("billmyservices_userid", System.getenv("BILLMYSERVICES_USERID"));
+        final String secretKey = System.getProperty("billmyservices_secretkey", System.getenv("BILLMYSERVICES_SECRETKEY"));
+
+        try (final BMSClientRegistry registry = new BMSClientRegistry(BMSClient.getDefaultURL(), 8, 2)) {
+
+            final BMSClient bms = registry.forTenant(userId, secretKey);
+
+            assertTrue(bms == registry.forTenant(userId, secretKey), "tenant clients should be reused");
+
+            // over the tenant limit, requests should wait, not fail
+            final List<ListenableFuture<Result<CounterType[]>>> futures = IntStream.range(0, CONCURRENT_TESTS)
+                    .mapToObj(ignore -> bms.listCounterTypes()).collect(toList());
+
+            assertTrue(futures.stream().allMatch(k -> {
+                try {
+                    return k.get().isSuccess();
+                } catch (ExecutionException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+
+        }
+    }
+
+    private void deadlineTest() throws ExecutionException, InterruptedException {
+
+        final BMSClient bms = BMSClient.getDefault();
+
+        // one expired deadline should never be sent
+        final Result<Boolean> expired = bms.postCounter(UUID.randomUUID().toString(), "Peter", 1L, Deadline.afterMillis(0L)).get();
+        assertTrue(!expired.isSuccess() && expired.isDeadlineExceeded(), "expired operations should fail with deadline exceeded");
+
+        // queued requests should be discarded once expired
+        final BMSClient limited = bms.withRequestScheduler(new RequestScheduler(1));
+        final Deadline deadline = Deadline.afterMillis(MAX_FUTURES_TIME_MS);
+        final List<ListenableFuture<Result<CounterType[]>>> futures = IntStream.range(0, CONCURRENT_TESTS)
+                .mapToObj(ignore -> limited.listCounterTypes(deadline)).collect(toList());
+        for (final ListenableFuture<Result<CounterType[]>> f : futures) {
+            final Result<CounterType[]> r = f.get();
+            assertTrue(r.isSuccess() || r.isDeadlineExceeded(), "operations should success or fail with deadline exceeded");
+        }
+
+        assertTrue(bms.listCounterTypes(Deadline.afterMillis(10_000L)).get().isSuccess());
+    }
+
+    private void reconcileTest() throws ExecutionException, InterruptedException {
+
+        final BMSClient bms = BMSClient.getDefault();
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final List<CounterType> desired = IntStream.range(0, 6).mapToObj(ignore -> rndCounterType()).collect(toList());
+
+        try {
+            final CounterTypeReconciler reconciler = new CounterTypeReconciler(bms, scheduler, 4, 3);
+
+            final CounterTypeReconciler.Report first = reconciler.reconcile(desired, false).get().get();
+            assertTrue(first.isComplete() && first.getAdded().size() == desired.size(), "missing counter types should be added");
+
+            // only the changed counter type should be applied
+            final CounterType changed = desired.get(0);
+            desired.set(0, new CounterType(changed.getCode(), changed.getName(), 1, -5, 5, AbsoluteCounter));
+            final CounterTypeReconciler.Report second = reconciler.reconcile(desired, false).get().get();
+            assertTrue(second.isComplete() && second.getUpdated().size() == 1 && second.getAdded().isEmpty()
+                    && second.getUnchanged() == desired.size() - 1, "only changed counter types should be applied");
+
+        } finally {
+            scheduler.shutdown();
+            for (final CounterType counterType : desired)
+                bms.deleteCounterType(counterType.getCode()).get();
+        }
+    }
+
     void nonBlockingTest() {
 
         final BMSClient bms = BMSClient.getDefault();
@@ -202,6 +365,42 @@ class BMSClientTest {
         absoluteCountersTest();
     }
 
+    @Test
+    @DisplayName("Counter watch")
+    void runWatchTest() throws ExecutionException, InterruptedException {
+        watchTest();
+    }
+
+    @Test
+    @DisplayName("Counters decoded into sinks")
+    void runSinkTest() throws ExecutionException, InterruptedException {
+        sinkTest();
+    }
+
+    @Test
+    @DisplayName("Counter types catalog snapshot")
+    void runCatalogTest() throws ExecutionException, InterruptedException, IOException {
+        catalogTest();
+    }
+
+    @Test
+    @DisplayName("Multi tenant registry")
+    void runRegistryTest() throws IOException {
+        registryTest();
+    }
+
+    @Test
+    @DisplayName("Deadlines")
+    void runDeadlineTest() throws ExecutionException, InterruptedException {
+        deadlineTest();
+    }
+
+    @Test
+    @DisplayName("Counter types reconciliation")
+    void runReconcileTest() throws ExecutionException, InterruptedException {
+        reconcileTest();
+    }
+
     @Test
     @DisplayName("Non blocking support")
     void runNonBlockingTest() {
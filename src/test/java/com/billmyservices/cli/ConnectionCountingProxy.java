@@ -0,0 +1,254 @@
+package com.billmyservices.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.channels.SelectionKey.OP_ACCEPT;
+import static java.nio.channels.SelectionKey.OP_CONNECT;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+
+/**
+ * Local TCP proxy counting the connections opened through it (current, peak and total), used to compare how many
+ * connections each transport needs.
+ * <p>
+ * All the connections are relayed by one unique selector thread (non blocking channels, upstream connections included),
+ * then thousands of proxied connections do not add thousands of threads (and their context switches) to the measured
+ * latencies. Closing the proxy closes all the proxied connections.
+ */
+final class ConnectionCountingProxy implements Closeable {
+
+    private static final int BUFFER_SIZE = 16 * 1_024;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final InetSocketAddress target;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicInteger total = new AtomicInteger();
+
+    /**
+     * Start a new one proxy listening on one ephemeral local port
+     *
+     * @param target the proxied address
+     * @throws IOException if the proxy cannot listen
+     */
+    ConnectionCountingProxy(final InetSocketAddress target) throws IOException {
+        this.target = target;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1_024);
+        server.configureBlocking(false);
+        server.register(selector, OP_ACCEPT);
+        this.thread = new Thread(this::run, "bms-proxy");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    int getOpenConnections() {
+        return open.get();
+    }
+
+    int getPeakConnections() {
+        return peak.get();
+    }
+
+    int getTotalConnections() {
+        return total.get();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            // this connection cannot be proxied, keep serving the others
+                        }
+                        continue;
+                    }
+                    final Side side = (Side) key.attachment();
+                    try {
+                        if (key.isConnectable())
+                            connected(side);
+                        else if (key.isReadable())
+                            read(side);
+                        if (key.isValid() && key.isWritable())
+                            flush(side);
+                    } catch (IOException | CancelledKeyException e) {
+                        side.connection.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // the proxy was closed
+        } finally {
+            for (final SelectionKey key : selector.keys())
+                if (key.attachment() instanceof Side)
+                    ((Side) key.attachment()).connection.close();
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Accept one connection and start connecting upstream, the client is not read until the upstream is connected
+     */
+    private void accept() throws IOException {
+        final SocketChannel client = server.accept();
+        if (client == null)
+            return;
+        final SocketChannel upstream;
+        try {
+            client.configureBlocking(false);
+            upstream = SocketChannel.open();
+            upstream.configureBlocking(false);
+        } catch (IOException e) {
+            closeQuietly(client);
+            throw e;
+        }
+        final Connection connection = new Connection(client, upstream);
+        total.incrementAndGet();
+        peak.accumulateAndGet(open.incrementAndGet(), Math::max);
+        try {
+            connection.down.key = client.register(selector, 0, connection.down);
+            connection.up.key = upstream.register(selector, OP_CONNECT, connection.up);
+            if (upstream.connect(target))
+                connected(connection.up);
+        } catch (IOException e) {
+            connection.close();
+        }
+    }
+
+    private static void connected(final Side up) throws IOException {
+        if (!up.channel.finishConnect())
+            return;
+        up.key.interestOps(OP_READ);
+        up.peer.key.interestOps(OP_READ);
+    }
+
+    /**
+     * Read from one side into its peer pending output, then write it to the peer
+     */
+    private static void read(final Side side) throws IOException {
+        if (side.channel.read(side.peer.out) < 0) {
+            // half closed, once the pending output is written, the peer output is shut down too
+            side.eof = true;
+            side.key.interestOps(side.key.interestOps() & ~OP_READ);
+        }
+        flush(side.peer);
+    }
+
+    /**
+     * Write the pending output of one side, while it cannot be written, its peer is not read (back pressure)
+     */
+    private static void flush(final Side side) throws IOException {
+        ((Buffer) side.out).flip();
+        side.channel.write(side.out);
+        side.out.compact();
+        if (side.out.position() > 0) {
+            side.key.interestOps(side.key.interestOps() | OP_WRITE);
+            side.peer.key.interestOps(side.peer.key.interestOps() & ~OP_READ);
+            return;
+        }
+        side.key.interestOps(side.key.interestOps() & ~OP_WRITE);
+        if (!side.peer.eof)
+            side.peer.key.interestOps(side.peer.key.interestOps() | OP_READ);
+        else if (side.eof && side.peer.out.position() == 0)
+            side.connection.close();
+        else
+            side.channel.shutdownOutput();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while closing the proxy", e);
+        }
+    }
+
+    /**
+     * One proxied connection, both sides are closed together, guarded by the selector thread
+     */
+    private final class Connection {
+        private final Side down;
+        private final Side up;
+        private boolean closed = false;
+
+        Connection(final SocketChannel client, final SocketChannel upstream) {
+            this.down = new Side(this, client);
+            this.up = new Side(this, upstream);
+            down.peer = up;
+            up.peer = down;
+        }
+
+        void close() {
+            if (closed)
+                return;
+            closed = true;
+            closeQuietly(down.channel);
+            closeQuietly(up.channel);
+            open.decrementAndGet();
+        }
+    }
+
+    private static void closeQuietly(final SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * One side of one proxied connection with its pending output (read from the peer, not yet written)
+     */
+    private static final class Side {
+        private final Connection connection;
+        private final SocketChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private Side peer;
+        private SelectionKey key;
+        private boolean eof = false;
+
+        Side(final Connection connection, final SocketChannel channel) {
+            this.connection = connection;
+            this.channel = channel;
+        }
+    }
+}
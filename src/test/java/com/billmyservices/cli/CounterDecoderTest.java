@@ -0,0 +1,135 @@
+package com.billmyservices.cli;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Counter decoder test suite")
+class CounterDecoderTest {
+
+    /**
+     * Feed the body one byte each time, the worst split
+     */
+    private static Result<Boolean> decode(final CounterDecoder decoder, final int statusCode, final String body) {
+        decoder.onStatus(statusCode);
+        for (final byte b : body.getBytes(StandardCharsets.UTF_8))
+            decoder.onBodyPart(ByteBuffer.wrap(new byte[]{b}));
+        return decoder.onCompleted();
+    }
+
+    @Test
+    @DisplayName("One counter")
+    void counter() {
+        final MutableCounter counter = new MutableCounter();
+        final Result<Boolean> r = decode(new CounterDecoder(counter), 200,
+                "{\"code\":\"Pe\\\"ter\",\"extra\":{\"value\":99,\"xs\":[1,2.5,true,null]},\"timeRef\":1510000000,\"value\":-42}");
+        assertTrue(r.isSuccess());
+        assertEquals(-42L, counter.getValue());
+        assertEquals(1510000000L, counter.getTimeRef());
+    }
+
+    @Test
+    @DisplayName("The counters of one counter type")
+    void counters() {
+        final List<String> seen = new ArrayList<>();
+        final Result<Boolean> r = decode(new CounterDecoder((code, value, timeRef) -> seen.add(code + "=" + value + "@" + timeRef)), 200,
+                "{\"counterType\":{\"code\":\"t\",\"name\":\"n\",\"value\":7,\"k1\":-5,\"k2\":5,\"version\":\"AbsoluteCounter\"},"
+                        + "\"counters\":[{\"code\":\"a\",\"timeRef\":1,\"value\":2}, {\"code\":\"\\u00f1\u00e9\u20ac\",\"timeRef\":3,\"value\":4}]}");
+        assertTrue(r.isSuccess());
+        assertEquals(2, seen.size());
+        assertEquals("a=2@1", seen.get(0));
+        assertEquals("\u00f1\u00e9\u20ac=4@3", seen.get(1));
+    }
+
+    @Test
+    @DisplayName("Failures")
+    void failures() {
+        final Result<Boolean> status = decode(new CounterDecoder(new MutableCounter()), 404, "not found");
+        assertFalse(status.isSuccess());
+        assertTrue(status.getErrorMessage().contains("not found"));
+        assertTrue(status instanceof HttpFailed);
+        assertEquals(404, ((HttpFailed<?>) status).getStatusCode());
+
+        assertFalse(decode(new CounterDecoder(new MutableCounter()), 200, "{\"value\":1").isSuccess());
+    }
+
+    @Test
+    @DisplayName("Out of range values fail the decode")
+    void outOfRange() {
+        final MutableCounter limits = new MutableCounter();
+        assertTrue(decode(new CounterDecoder(limits), 200,
+                "{\"timeRef\":9223372036854775807,\"value\":-9223372036854775808}").isSuccess());
+        assertEquals(Long.MIN_VALUE, limits.getValue());
+        assertEquals(Long.MAX_VALUE, limits.getTimeRef());
+
+        final MutableCounter counter = new MutableCounter();
+        assertFalse(decode(new CounterDecoder(counter), 200, "{\"timeRef\":1,\"value\":9223372036854775808}").isSuccess());
+        assertFalse(decode(new CounterDecoder(counter), 200, "{\"timeRef\":-9223372036854775809,\"value\":1}").isSuccess());
+        assertEquals(0L, counter.getValue());
+
+        final List<String> seen = new ArrayList<>();
+        assertFalse(decode(new CounterDecoder((code, value, timeRef) -> seen.add(code.toString())), 200,
+                "{\"counters\":[{\"code\":\"a\",\"value\":99999999999999999999}]}").isSuccess());
+        assertTrue(seen.isEmpty());
+
+        // any other number is skipped
+        assertTrue(decode(new CounterDecoder(counter), 200, "{\"extra\":99999999999999999999,\"value\":2}").isSuccess());
+        assertEquals(2L, counter.getValue());
+    }
+
+    @Test
+    @DisplayName("Replayed responses start again")
+    void replayed() {
+        final MutableCounter counter = new MutableCounter();
+        final CounterDecoder decoder = new CounterDecoder(counter);
+        decoder.onStatus(503);
+        decoder.onBodyPart(ByteBuffer.wrap("unavailable".getBytes(StandardCharsets.UTF_8)));
+        decoder.onStatus(200);
+        decoder.onBodyPart(ByteBuffer.wrap("{\"code\":\"a\",\"value\":[".getBytes(StandardCharsets.UTF_8)));
+
+        final Result<Boolean> r = decode(decoder, 200, "{\"code\":\"a\",\"timeRef\":5,\"value\":6}");
+        assertTrue(r.isSuccess());
+        assertEquals(6L, counter.getValue());
+        assertEquals(5L, counter.getTimeRef());
+    }
+
+    @Test
+    @DisplayName("Only the exact known keys are matched")
+    void keys() {
+        final MutableCounter counter = new MutableCounter();
+        final Result<Boolean> r = decode(new CounterDecoder(counter), 200,
+                "{\"val\":1,\"values\":2,\"v\\u0061lue\":3,\"timeRe\":4,\"timeRef\":5,\"value\u00f1\":6}");
+        assertTrue(r.isSuccess());
+        assertEquals(3L, counter.getValue());
+        assertEquals(5L, counter.getTimeRef());
+
+        final List<String> seen = new ArrayList<>();
+        assertTrue(decode(new CounterDecoder((code, value, timeRef) -> seen.add(code + "=" + value)), 200,
+                "{\"x\":{\"counters\":[{\"code\":\"no\",\"value\":1}]},\"counter\":[{\"code\":\"no\"}],"
+                        + "\"counters\":[{\"codes\":\"no\",\"code\":\"a\\\"b\",\"value\":7}]}").isSuccess());
+        assertEquals(1, seen.size());
+        assertEquals("a\"b=7", seen.get(0));
+    }
+
+    @Test
+    @DisplayName("Decoded counters are cached")
+    void cached() {
+        final CounterStore store = new CounterStore(16);
+        final MutableCounter counter = new MutableCounter();
+        final long epoch = store.writeEpoch("t", "c");
+        assertTrue(decode(new CounterDecoder(counter, store, "t", "c", epoch), 200, "{\"timeRef\":8,\"value\":9}").isSuccess());
+
+        final MutableCounter cached = new MutableCounter();
+        assertTrue(store.get("t", "c", cached));
+        assertEquals(9L, cached.getValue());
+        assertEquals(8L, cached.getTimeRef());
+    }
+}
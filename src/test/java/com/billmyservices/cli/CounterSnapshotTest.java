@@ -0,0 +1,113 @@
+package com.billmyservices.cli;
+
+import com.jsoniter.JsonIterator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import static com.billmyservices.cli.CounterVersion.AbsoluteCounter;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Counter snapshot test suite")
+class CounterSnapshotTest {
+
+    private static final CounterType COUNTER_TYPE = new CounterType("type", "type", 0L, -1_000_000L, 1_000_000L, AbsoluteCounter);
+
+    private static CounterSnapshot snapshot(final String[] codes, final long[] values) {
+        return new CounterSnapshot(COUNTER_TYPE, codes, values, new long[codes.length]);
+    }
+
+    @Test
+    @DisplayName("Local queries")
+    void queries() {
+        final CounterSnapshot s = snapshot(new String[]{"a", "b", "c", "d", "e"}, new long[]{5L, -2L, 9L, 0L, 9L});
+
+        assertEquals(21L, s.sum());
+        assertEquals(2, s.indexOf("c"));
+        assertTrue(s.indexOf("x") < 0);
+        assertArrayEquals(new long[]{0L, 3L}, Arrays.stream(s.filter(0L, 5L)).asLongStream().toArray());
+        assertArrayEquals(new long[]{2L, 4L, 0L}, Arrays.stream(s.top(3)).asLongStream().toArray());
+        assertEquals(5, s.top(10).length);
+    }
+
+    @Test
+    @DisplayName("Parallel queries over large snapshots")
+    void largeQueries() {
+        final int n = 300_000;
+        final String[] codes = IntStream.range(0, n).mapToObj(i -> String.format("k%07d", i)).toArray(String[]::new);
+        final long[] values = IntStream.range(0, n).mapToLong(i -> (i * 7919L) % n).toArray();
+        final CounterSnapshot s = snapshot(codes, values);
+
+        assertEquals((long) n * (n - 1) / 2, s.sum());
+        assertEquals(1_000, s.filter(0L, 999L).length);
+
+        final int[] top = s.top(100);
+        final Integer[] expected = IntStream.range(0, n).boxed()
+                .sorted(Comparator.comparingLong((Integer i) -> -values[i]))
+                .limit(100).toArray(Integer[]::new);
+        assertArrayEquals(expected, Arrays.stream(top).boxed().toArray(Integer[]::new));
+    }
+
+    @Test
+    @DisplayName("Changes between snapshots")
+    void diff() {
+        final CounterSnapshot before = snapshot(new String[]{"a", "b", "c"}, new long[]{1L, 2L, 3L});
+        final CounterSnapshot after = snapshot(new String[]{"b", "c", "d"}, new long[]{2L, 7L, 4L});
+
+        final CounterSnapshot d = after.diff(before);
+        assertEquals(3, d.size());
+        assertEquals("a", d.getCode(0));
+        assertEquals(-1L, d.getValue(0));
+        assertEquals("c", d.getCode(1));
+        assertEquals(4L, d.getValue(1));
+        assertEquals("d", d.getCode(2));
+        assertEquals(4L, d.getValue(2));
+    }
+
+    @Test
+    @DisplayName("Snapshots filled from one counters sink")
+    void builder() {
+        final CounterSnapshot.Builder builder = CounterSnapshot.builder(COUNTER_TYPE);
+        final StringBuilder code = new StringBuilder();
+        for (final String c : new String[]{"c", "a", "b", "a"}) {
+            code.setLength(0);
+            code.append(c);
+            builder.accept(code, c.charAt(0), 10L + c.charAt(0));
+        }
+        builder.accept("a", 100L, 1L);
+
+        final CounterSnapshot s = builder.build();
+        assertEquals(3, s.size());
+        assertEquals("a", s.getCode(0));
+        assertEquals(100L, s.getValue(0));
+        assertEquals(1L, s.getTimeRef(0));
+        assertEquals("c", s.getCode(2));
+        assertEquals('c', s.getValue(2));
+        assertEquals(10L + 'c', s.getTimeRef(2));
+    }
+
+    @Test
+    @DisplayName("Snapshots of one read counter type keep the last repeated code")
+    void duplicates() {
+        final CounterTypeAndCounters read = JsonIterator.deserialize(
+                "{\"counterType\":{\"code\":\"type\",\"name\":\"type\",\"value\":0,\"k1\":-5,\"k2\":5,\"version\":\"AbsoluteCounter\"},"
+                        + "\"counters\":[{\"code\":\"b\",\"timeRef\":1,\"value\":1},{\"code\":\"a\",\"timeRef\":2,\"value\":2},"
+                        + "{\"code\":\"b\",\"timeRef\":3,\"value\":3},{\"code\":\"a\",\"timeRef\":4,\"value\":4}]}",
+                CounterTypeAndCounters.class);
+
+        final CounterSnapshot s = read.toSnapshot();
+        assertEquals(2, s.size());
+        assertEquals("a", s.getCode(0));
+        assertEquals(4L, s.getValue(0));
+        assertEquals(4L, s.getTimeRef(0));
+        assertEquals("b", s.getCode(1));
+        assertEquals(3L, s.getValue(1));
+        assertEquals(1, s.indexOf("b"));
+        assertEquals(7L, s.sum());
+    }
+}
@@ -0,0 +1,155 @@
+package com.billmyservices.cli;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+@DisplayName("Counter store test suite")
+class CounterStoreTest {
+
+    private static long[] read(final CounterStore store, final String type, final String code) {
+        final long[] r = new long[2];
+        if (!store.get(type, code, (value, timeRef) -> {
+            r[0] = value;
+            r[1] = timeRef;
+        }))
+            return null;
+        return r;
+    }
+
+    @Test
+    @DisplayName("Put, get, replace and remove")
+    void basicOperations() {
+        final CounterStore store = new CounterStore(1_000);
+
+        for (int i = 0; i < 500; i++)
+            store.put("type", "code" + i, i, 1_000L + i);
+
+        assertEquals(500, store.size());
+
+        for (int i = 0; i < 500; i++) {
+            final long[] r = read(store, "type", "code" + i);
+            assertTrue(r != null && r[0] == i && r[1] == 1_000L + i, "should read the stored counter");
+        }
+
+        store.put("type", "code7", -7L, 7L);
+        final long[] r = read(store, "type", "code7");
+        assertTrue(r != null && r[0] == -7L && r[1] == 7L, "should read the replaced counter");
+        assertEquals(500, store.size());
+
+        // removing should keep all other counters reachable (backward shift deletion)
+        for (int i = 0; i < 500; i += 2)
+            assertTrue(store.remove("type", "code" + i));
+        for (int i = 0; i < 500; i++)
+            assertEquals(i % 2 != 0, read(store, "type", "code" + i) != null);
+        assertEquals(250, store.size());
+
+        assertFalse(store.remove("type", "code0"));
+        assertFalse(store.get("other", "code1", (value, timeRef) -> fail("should not be found")));
+    }
+
+    @Test
+    @DisplayName("Late reads do not cache stale values")
+    void lateReads() {
+        final CounterStore store = new CounterStore(1_000);
+
+        final long epoch = store.writeEpoch("type", "a");
+        assertTrue(store.putIfUnchanged("type", "a", 1L, 10L, epoch));
+
+        // one read is sent, then one post changes (evicts) the counter before the read response arrives
+        final long late = store.writeEpoch("type", "a");
+        store.remove("type", "a");
+        assertFalse(store.putIfUnchanged("type", "a", 1L, 10L, late));
+        assertEquals(null, read(store, "type", "a"));
+
+        final long typeEpoch = store.writeEpoch("type", "b");
+        store.removeCounterType("type");
+        assertFalse(store.putIfUnchanged("type", "b", 2L, 20L, typeEpoch));
+
+        assertTrue(store.putIfUnchanged("type", "a", 3L, 30L, store.writeEpoch("type", "a")));
+        assertEquals(3L, read(store, "type", "a")[0]);
+    }
+
+    @Test
+    @DisplayName("Remove one counter type")
+    void removeCounterType() {
+        final CounterStore store = new CounterStore(4_000);
+
+        for (int i = 0; i < 1_000; i++) {
+            store.put("a", Integer.toString(i), i, 0L);
+            store.put("b", Integer.toString(i), i, 0L);
+        }
+
+        assertEquals(1_000, store.removeCounterType("a"));
+        assertEquals(1_000, store.size());
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(read(store, "a", Integer.toString(i)) == null);
+            assertTrue(read(store, "b", Integer.toString(i)) != null);
+        }
+    }
+
+    @Test
+    @DisplayName("Bounded size with eviction of not recently read counters")
+    void eviction() {
+        final CounterStore store = new CounterStore(1_024, 1);
+
+        for (int i = 0; i < 1_024; i++)
+            store.put("type", Integer.toString(i), i, 0L);
+
+        // one full sweep clears all reference marks, then keep reading the first half
+        store.put("type", "x", 0L, 0L);
+        final List<String> kept = IntStream.range(0, 512).mapToObj(Integer::toString)
+                .filter(code -> read(store, "type", code) != null).collect(toList());
+        assertTrue(kept.size() >= 511);
+
+        for (int i = 0; i < 256; i++)
+            store.put("type", "new" + i, i, 0L);
+
+        assertEquals(store.capacity(), store.size());
+        assertTrue(store.evictions() > 256);
+        for (final String code : kept)
+            assertTrue(read(store, "type", code) != null, "recently read counters should be kept");
+    }
+
+    @Test
+    @DisplayName("Concurrent readers and writers")
+    void concurrency() throws InterruptedException {
+        final CounterStore store = new CounterStore(100_000);
+        final AtomicBoolean inconsistent = new AtomicBoolean(false);
+
+        final List<Thread> ts = IntStream.range(0, 8).mapToObj(t -> new Thread(() -> {
+            for (int round = 0; round < 20; round++)
+                for (int i = 0; i < 10_000; i++) {
+                    final String code = Integer.toString(i);
+                    if (t % 2 == 0)
+                        store.put("type" + t, code, i, -i);
+                    else if (!store.get("type" + (t - 1), code, (value, timeRef) -> {
+                        if (value != -timeRef)
+                            inconsistent.set(true);
+                    }) && round > 0)
+                        store.remove("type" + t, code);
+                }
+        })).collect(toList());
+
+        ts.forEach(Thread::start);
+        for (final Thread t : ts)
+            t.join();
+
+        assertFalse(inconsistent.get(), "value and time reference should be read together");
+        assertEquals(40_000, store.size());
+        final List<long[]> rs = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++)
+            rs.add(read(store, "type6", Integer.toString(i)));
+        assertTrue(rs.stream().allMatch(r -> r != null && r[0] == -r[1]));
+    }
+}
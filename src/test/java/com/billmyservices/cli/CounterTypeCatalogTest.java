@@ -0,0 +1,97 @@
+package com.billmyservices.cli;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static com.billmyservices.cli.CounterVersion.AbsoluteCounter;
+import static com.billmyservices.cli.CounterVersion.FrequencyCounter;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Counter type catalog test suite")
+class CounterTypeCatalogTest {
+
+    @Test
+    @DisplayName("Snapshot round trip")
+    void roundTrip() throws IOException {
+        final Path dir = Files.createTempDirectory("bms-catalog");
+        final Path snapshot = dir.resolve("catalog.bin");
+        try {
+            final List<CounterType> counterTypes = Arrays.asList(
+                    new CounterType("a", "\u00d1and\u00fa \u20ac", 1L, -5L, 5L, AbsoluteCounter),
+                    new CounterType("b", null, 0L, 100L, 3_600L, FrequencyCounter));
+            CounterTypeCatalog.write(snapshot, counterTypes, 1_510_000_000_000L);
+
+            final CounterTypeCatalog.Snapshot s = CounterTypeCatalog.read(snapshot);
+            assertEquals(1_510_000_000_000L, s.savedAtMs);
+            assertEquals(2, s.counterTypes.size());
+            for (final CounterType counterType : counterTypes)
+                assertTrue(CounterTypeReconciler.sameDefinition(counterType, s.counterTypes.get(counterType.getCode())));
+
+            // one loaded catalog serves the snapshot without any request
+            final CounterTypeCatalog catalog = CounterTypeCatalog.load(null, snapshot);
+            assertEquals(2, catalog.size());
+            assertEquals(3_600L, catalog.get("b").getK2());
+            assertFalse(catalog.isRevalidated());
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    @DisplayName("Corrupted or missing snapshots are ignored")
+    void corrupted() throws IOException {
+        final Path dir = Files.createTempDirectory("bms-catalog");
+        final Path snapshot = dir.resolve("catalog.bin");
+        try {
+            assertEquals(0, CounterTypeCatalog.load(null, snapshot).size());
+
+            CounterTypeCatalog.write(snapshot, Arrays.asList(new CounterType("a", "a", 1L, -5L, 5L, AbsoluteCounter)), 0L);
+            try (final FileChannel channel = FileChannel.open(snapshot, WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{'x'}), 30L);
+            }
+            assertThrows(IOException.class, () -> CounterTypeCatalog.read(snapshot));
+            assertEquals(0, CounterTypeCatalog.load(null, snapshot).size());
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    @DisplayName("Older revalidations are dropped")
+    void olderRevalidations() throws IOException {
+        final Path dir = Files.createTempDirectory("bms-catalog");
+        final Path snapshot = dir.resolve("catalog.bin");
+        try {
+            final BMSClient client = new BMSClient("http://localhost", "1", Base64.getEncoder().encodeToString(new byte[32]), (Transport) null);
+            final CounterTypeCatalog catalog = CounterTypeCatalog.load(client, snapshot);
+            final CounterType a = new CounterType("a", "a", 1L, -5L, 5L, AbsoluteCounter);
+
+            // the second revalidation response arrives first
+            assertEquals(1, catalog.apply(new CounterType[]{a}, 2L).getAdded().size());
+            assertTrue(catalog.apply(new CounterType[0], 1L).isEmpty());
+            assertEquals(1, catalog.size());
+            assertEquals(1, CounterTypeCatalog.read(snapshot).counterTypes.size());
+
+            assertEquals(1, catalog.apply(new CounterType[0], 3L).getRemoved().size());
+            assertEquals(0, catalog.size());
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.delete(dir);
+        }
+    }
+}
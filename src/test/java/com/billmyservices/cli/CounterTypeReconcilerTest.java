@@ -0,0 +1,222 @@
+package com.billmyservices.cli;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import static com.billmyservices.cli.CounterTypeReconciler.ChangeKind.ADD;
+import static com.billmyservices.cli.CounterTypeReconciler.ChangeKind.DELETE;
+import static com.billmyservices.cli.CounterTypeReconciler.ChangeKind.UPDATE;
+import static com.billmyservices.cli.CounterVersion.AbsoluteCounter;
+import static com.billmyservices.cli.CounterVersion.FrequencyCounter;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Counter type reconciler test suite")
+class CounterTypeReconcilerTest {
+
+    private static Map<String, CounterType> wanted(final CounterType... counterTypes) {
+        final Map<String, CounterType> wanted = new LinkedHashMap<>();
+        for (final CounterType counterType : counterTypes)
+            wanted.put(counterType.getCode(), counterType);
+        return wanted;
+    }
+
+    @Test
+    @DisplayName("Only the differences are planned")
+    void planDifferences() {
+        final CounterType same = new CounterType("same", "same", 0L, -5L, 5L, AbsoluteCounter);
+        final CounterType changed = new CounterType("changed", "changed", 0L, 10L, 60_000L, FrequencyCounter);
+        final CounterType missing = new CounterType("missing", "missing", 0L, -5L, 5L, AbsoluteCounter);
+        final CounterType extra = new CounterType("extra", "extra", 0L, -5L, 5L, AbsoluteCounter);
+        final CounterType[] current = {
+                new CounterType("same", "same", 0L, -5L, 5L, AbsoluteCounter),
+                new CounterType("changed", "changed", 0L, 20L, 60_000L, FrequencyCounter),
+                extra};
+
+        final List<CounterTypeReconciler.Change> kept = CounterTypeReconciler.plan(wanted(same, changed, missing), current, false);
+        assertEquals(2, kept.size());
+        assertTrue(kept.stream().anyMatch(c -> c.kind == UPDATE && c.counterType == changed));
+        assertTrue(kept.stream().anyMatch(c -> c.kind == ADD && c.counterType == missing));
+
+        final List<CounterTypeReconciler.Change> pruned = CounterTypeReconciler.plan(wanted(same, changed, missing), current, true);
+        assertEquals(3, pruned.size());
+        assertTrue(pruned.stream().anyMatch(c -> c.kind == DELETE && c.counterType == extra));
+    }
+
+    @Test
+    @DisplayName("Up to date counter types need no changes")
+    void planNothing() {
+        final CounterType a = new CounterType("a", "a", 1L, 2L, 3L, AbsoluteCounter);
+        final CounterType[] current = {new CounterType("a", "a", 1L, 2L, 3L, AbsoluteCounter)};
+        assertTrue(CounterTypeReconciler.plan(wanted(a), current, true).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Definitive failures are not retried")
+    void definitiveFailures() {
+        assertTrue(CounterTypeReconciler.definitive(new HttpFailed<>(400, "bad request")));
+        assertTrue(CounterTypeReconciler.definitive(new HttpFailed<>(404, "not found")));
+        assertFalse(CounterTypeReconciler.definitive(new HttpFailed<>(408, "request timeout")));
+        assertFalse(CounterTypeReconciler.definitive(new HttpFailed<>(429, "too many requests")));
+        assertFalse(CounterTypeReconciler.definitive(new HttpFailed<>(503, "unavailable")));
+        assertFalse(CounterTypeReconciler.definitive(new Failed<>("connection refused")));
+        assertFalse(CounterTypeReconciler.definitive(new DeadlineExceeded<>()));
+    }
+
+    @Test
+    @DisplayName("Synchronously completed changes do not nest")
+    void synchronousChanges() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            // every change fails immediately, on the calling thread
+            final FakeTransport transport = new FakeTransport(new CounterType[0], (method, code) -> 503, null);
+            final List<CounterType> desired = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++)
+                desired.add(new CounterType("t" + i, "t", 0L, -5L, 5L, AbsoluteCounter));
+
+            final CounterTypeReconciler.Report report = new CounterTypeReconciler(transport.client(), scheduler, 4, 1)
+                    .reconcile(desired, false).get(10L, TimeUnit.SECONDS).get();
+            assertEquals(20_000, report.getFailed().size());
+            assertEquals(20_001, report.getRequests());
+            assertEquals(0, report.getRetries());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Changes are retried, recreated and bounded without any server")
+    void offlineRun() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService responses = Executors.newFixedThreadPool(8);
+        try {
+            final CounterType[] current = {
+                    new CounterType("rigid", "rigid", 0L, -5L, 5L, AbsoluteCounter),
+                    new CounterType("lost", "lost", 0L, -5L, 5L, AbsoluteCounter),
+                    new CounterType("extra", "extra", 0L, -5L, 5L, AbsoluteCounter)};
+            final Set<String> existing = new HashSet<>(Arrays.asList("rigid", "lost", "extra"));
+            final AtomicInteger flakyAttempts = new AtomicInteger();
+            final FakeTransport transport = new FakeTransport(current, (method, code) -> {
+                synchronized (existing) {
+                    if (method.equals("DELETE"))
+                        return existing.remove(code) ? 200 : 404;
+                    if (code.equals("bad"))
+                        return 400;
+                    if (code.equals("flaky") && flakyAttempts.incrementAndGet() == 1)
+                        return 503;
+                    // rigid and lost cannot be updated in place, lost cannot be added again
+                    if (existing.contains(code))
+                        return 409;
+                    if (code.equals("lost"))
+                        return 400;
+                    existing.add(code);
+                    return 200;
+                }
+            }, responses);
+            final List<CounterType> desired = Arrays.asList(
+                    new CounterType("fresh", "fresh", 0L, -5L, 5L, AbsoluteCounter),
+                    new CounterType("flaky", "flaky", 0L, -5L, 5L, AbsoluteCounter),
+                    new CounterType("bad", "bad", 0L, -5L, 5L, AbsoluteCounter),
+                    new CounterType("rigid", "rigid", 0L, -9L, 9L, AbsoluteCounter),
+                    new CounterType("lost", "lost", 0L, -9L, 9L, AbsoluteCounter));
+
+            final CounterTypeReconciler.Report report = new CounterTypeReconciler(transport.client(), scheduler, 2, 3, true)
+                    .reconcile(desired, true).get(10L, TimeUnit.SECONDS).get();
+            assertEquals(new HashSet<>(Arrays.asList("fresh", "flaky")), new HashSet<>(report.getAdded()));
+            assertEquals(singletonList("rigid"), report.getUpdated());
+            assertEquals(singletonList("extra"), report.getDeleted());
+            assertEquals(singletonList("lost"), report.getMissing());
+            assertEquals(new HashSet<>(Arrays.asList("bad", "lost")), report.getFailed().keySet());
+            assertEquals(0, report.getUnchanged());
+            // list, fresh, flaky (twice), bad, rigid and lost (add, delete, add), extra
+            assertEquals(12, report.getRequests());
+            assertEquals(1, report.getRetries(), "only the transient failure should be retried");
+            assertTrue(transport.maxInFlight.get() <= 2, "at most `parallelism` changes should be applied at the same time");
+        } finally {
+            scheduler.shutdownNow();
+            responses.shutdownNow();
+        }
+    }
+
+    /**
+     * Answers the counter type requests with the given status, synchronously (on the calling thread) or on one executor
+     */
+    private static final class FakeTransport implements Transport {
+        private static final String URL = "http://localhost";
+        private static final String USER_URL = URL + "/1";
+
+        private final String list;
+        private final BiFunction<String, String, Integer> status;
+        private final ExecutorService executor;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        FakeTransport(final CounterType[] current, final BiFunction<String, String, Integer> status, final ExecutorService executor) {
+            this.list = Arrays.stream(current)
+                    .map(c -> String.format("{\"code\":\"%s\",\"name\":\"%s\",\"value\":%d,\"k1\":%d,\"k2\":%d,\"version\":\"%s\"}",
+                            c.getCode(), c.getName(), c.getValue(), c.getK1(), c.getK2(), c.getVersion()))
+                    .collect(Collectors.joining(",", "[", "]"));
+            this.status = status;
+            this.executor = executor;
+        }
+
+        BMSClient client() {
+            return new BMSClient(URL, "1", Base64.getEncoder().encodeToString(new byte[32]), this);
+        }
+
+        @Override
+        public <T> CompletableFuture<T> send(final TransportRequest request, final ResponseHandler<T> handler) {
+            if (executor == null)
+                return respond(request, handler);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(5L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return respond(request, handler).join();
+            }, executor);
+        }
+
+        private <T> CompletableFuture<T> respond(final TransportRequest request, final ResponseHandler<T> handler) {
+            final String path = request.getUrl().substring(USER_URL.length());
+            final int statusCode = path.isEmpty() ? 200 : status.apply(request.getMethod(), path.substring(1));
+            final CompletableFuture<T> response = new CompletableFuture<>();
+            try {
+                handler.onStatus(statusCode);
+                handler.onBodyPart(ByteBuffer.wrap((path.isEmpty() ? list : "").getBytes(StandardCharsets.UTF_8)));
+                response.complete(handler.onCompleted());
+            } catch (Exception e) {
+                response.completeExceptionally(e);
+            }
+            return response;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.billmyservices.cli;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static com.billmyservices.cli.CounterVersion.AbsoluteCounter;
+import static com.billmyservices.cli.CounterVersion.FrequencyCounter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Heavy hitter filter test suite")
+class HeavyHitterFilterTest {
+
+    private static final CounterType LIMITED = new CounterType("limited", "limited", 0L, 100L, 3_600L, FrequencyCounter);
+
+    @Test
+    @DisplayName("Heavy hitters are denied, other keys are not")
+    void heavyHitters() {
+        final HeavyHitterFilter filter = new HeavyHitterFilter(0.001, 0.01, 2.0).track(LIMITED);
+
+        // many distinct keys under the limit should never be denied
+        for (int i = 0; i < 100_000; i++)
+            assertFalse(filter.deny("limited", "k" + i, 1L));
+
+        // one abusive key is denied once clearly over the limit
+        int passed = 0;
+        for (int i = 0; i < 1_000; i++)
+            if (!filter.deny("limited", "abuser", 1L))
+                passed++;
+        assertTrue(passed >= 200, "borderline posts should be sent");
+        assertTrue(passed < 1_000, "clearly over the limit posts should be denied");
+
+        assertEquals(101_000L, filter.getChecked());
+        assertEquals(1_000L - passed, filter.getDenied());
+    }
+
+    @Test
+    @DisplayName("Denied keys are sent again in the next window")
+    void recovery() {
+        final CounterType limited = new CounterType("limited", "limited", 0L, 100L, 10L, FrequencyCounter);
+        final HeavyHitterFilter filter = new HeavyHitterFilter(0.001, 0.01, 2.0).track(limited);
+        final long windowMs = 10_000L;
+        final long start = (System.currentTimeMillis() / windowMs + 1L) * windowMs;
+
+        // the abusive key keeps posting during the whole window
+        int passed = 0;
+        for (int i = 0; i < 10_000; i++)
+            if (!filter.deny("limited", "abuser", 1L, start + i))
+                passed++;
+        assertTrue(passed < 1_000, "clearly over the limit posts should be denied");
+
+        // half the next window later, only the sent posts are weighted in
+        assertFalse(filter.deny("limited", "abuser", 1L, start + windowMs + windowMs / 2L));
+    }
+
+    @Test
+    @DisplayName("Untracked counter types are never denied")
+    void untracked() {
+        final HeavyHitterFilter filter = new HeavyHitterFilter(0.01, 0.01, 1.0).track(LIMITED);
+        for (int i = 0; i < 1_000; i++)
+            assertFalse(filter.deny("other", "abuser", 1L));
+        assertEquals(0L, filter.getChecked());
+
+        assertTrue(filter.untrack("limited"));
+        assertFalse(filter.deny("limited", "abuser", 1_000L));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> filter.track(new CounterType("absolute", "absolute", 0L, -5L, 5L, AbsoluteCounter)));
+    }
+}
@@ -0,0 +1,68 @@
+package com.billmyservices.cli;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Load generator test suite")
+class LoadGeneratorTest {
+
+    @Test
+    @DisplayName("Options are parsed as `--name=value`")
+    void options() {
+        final Map<String, String> options = LoadGenerator.parseOptions("--rate=2000", "--mix=post:1,read:2", "--url=http://h/?a=b");
+        assertEquals(3, options.size());
+        assertEquals("2000", options.get("rate"));
+        assertEquals("post:1,read:2", options.get("mix"));
+        assertEquals("http://h/?a=b", options.get("url"));
+
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseOptions("rate=2000"));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.parseOptions("--rate"));
+    }
+
+    @Test
+    @DisplayName("Operations mix weights are cumulative")
+    void mix() {
+        final LoadGenerator.Operation[] ops = LoadGenerator.Operation.parseMix("post:80,read:15,readType:5");
+        assertEquals(3, ops.length);
+        assertEquals("post", ops[0].getName());
+        assertEquals(80, ops[0].getCumulativeWeight());
+        assertEquals("read", ops[1].getName());
+        assertEquals(95, ops[1].getCumulativeWeight());
+        assertEquals("readType", ops[2].getName());
+        assertEquals(100, ops[2].getCumulativeWeight());
+
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Operation.parseMix("delete:10"));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Operation.parseMix("post"));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Operation.parseMix("post:0,read:0"));
+    }
+
+    @Test
+    @DisplayName("Zipf keys follow their ranks, uniform keys cover the range")
+    void keys() {
+        final int n = 1_000;
+        final int samples = 200_000;
+
+        final int[] zipf = new int[n];
+        final LoadGenerator.KeySampler zipfSampler = new LoadGenerator.KeySampler(n, 1.0);
+        for (int i = 0; i < samples; i++)
+            zipf[zipfSampler.next()]++;
+        // with exponent 1, rank 0 is sampled 1 / H(1000) ~ 13.4 % of the times and rank 1 half of them
+        final double first = zipf[0] / (double) samples;
+        assertTrue(first > 0.12 && first < 0.15, String.format("rank 0 frequency %f", first));
+        assertTrue(zipf[0] > zipf[1] && zipf[1] > zipf[9] && zipf[9] > zipf[99]);
+        assertEquals(0.5, zipf[1] / (double) zipf[0], 0.05);
+
+        final int[] uniform = new int[n];
+        final LoadGenerator.KeySampler uniformSampler = new LoadGenerator.KeySampler(n);
+        for (int i = 0; i < samples; i++)
+            uniform[uniformSampler.next()]++;
+        for (int i = 0; i < n; i++)
+            assertTrue(uniform[i] > 100 && uniform[i] < 300, String.format("key %d sampled %d times", i, uniform[i]));
+    }
+}
@@ -0,0 +1,222 @@
+package com.billmyservices.cli;
+
+import org.asynchttpclient.ListenableFuture;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.billmyservices.cli.RequestLane.ADMIN;
+import static com.billmyservices.cli.RequestLane.ADMISSION;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Request scheduler test suite")
+class RequestSchedulerTest {
+
+    @Test
+    @DisplayName("Lane in-flight budgets")
+    void laneBudgets() {
+        final RequestScheduler scheduler = new RequestScheduler(2, 1);
+        final List<String> started = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            final String name = "check" + i;
+            scheduler.submit(ADMISSION, () -> started.add(name));
+        }
+        for (int i = 0; i < 2; i++) {
+            final String name = "admin" + i;
+            scheduler.submit(ADMIN, () -> started.add(name));
+        }
+
+        // admin requests wait while admission requests are waiting
+        assertEquals(2, started.size());
+        assertEquals(2, scheduler.getInFlight());
+        assertEquals(3, scheduler.getQueued());
+
+        // once no admission request is waiting, one admin request (its budget) should start
+        scheduler.release(ADMISSION);
+        assertEquals(4, started.size());
+        assertEquals("check2", started.get(2));
+        assertEquals("admin0", started.get(3));
+
+        scheduler.release(ADMISSION);
+        assertEquals(4, started.size());
+
+        scheduler.release(ADMIN);
+        assertEquals("admin1", started.get(4));
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    @DisplayName("Admission requests go first")
+    void admissionFirst() {
+        final RequestScheduler scheduler = new RequestScheduler(1, 1);
+        final List<String> started = new ArrayList<>();
+
+        scheduler.submit(ADMISSION, () -> started.add("check0"));
+        scheduler.submit(ADMIN, () -> started.add("admin0"));
+        scheduler.submit(ADMIN, () -> started.add("admin1"));
+        scheduler.submit(ADMISSION, () -> started.add("check1"));
+
+        assertEquals(2, started.size());
+
+        scheduler.release(ADMIN);
+        assertEquals(2, started.size());
+
+        scheduler.release(ADMISSION);
+        assertEquals(4, started.size());
+        assertEquals("check1", started.get(2));
+        assertEquals("admin1", started.get(3));
+    }
+
+    @Test
+    @DisplayName("Discarded requests do not hold the budget")
+    void discarded() {
+        final RequestScheduler scheduler = new RequestScheduler(1, 1);
+        final List<String> started = new ArrayList<>();
+
+        scheduler.submit(ADMISSION, () -> started.add("check0"));
+        for (int i = 0; i < 10_000; i++)
+            scheduler.submit(ADMISSION, () -> false);
+        scheduler.submit(ADMISSION, () -> started.add("check1"));
+
+        scheduler.release(ADMISSION);
+        assertEquals(2, started.size());
+        assertEquals(1, scheduler.getInFlight());
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    @DisplayName("Shared budget served round-robin")
+    void sharedBudget() {
+        final RequestBudget budget = new RequestBudget(2);
+        final RequestScheduler a = new RequestScheduler(4, 1, budget);
+        final RequestScheduler b = new RequestScheduler(4, 1, budget);
+        final List<String> started = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            final String name = "a" + i;
+            a.submit(ADMISSION, () -> started.add(name));
+        }
+        for (int i = 0; i < 2; i++) {
+            final String name = "b" + i;
+            b.submit(ADMISSION, () -> started.add(name));
+        }
+
+        // the busy tenant took the whole budget, then the waiting tenants are served in turn
+        assertEquals(2, started.size());
+        assertEquals(2, budget.getInFlight());
+        assertEquals(4, a.getQueued() + b.getQueued());
+
+        a.release(ADMISSION);
+        a.release(ADMISSION);
+        assertEquals(4, started.size());
+        assertEquals("a2", started.get(2));
+        assertEquals("b0", started.get(3));
+
+        b.release(ADMISSION);
+        assertEquals("a3", started.get(4));
+        a.release(ADMISSION);
+        assertEquals("b1", started.get(5));
+        assertEquals(2, budget.getInFlight());
+        assertEquals(0, a.getQueued() + b.getQueued());
+    }
+
+    @Test
+    @DisplayName("Synchronous transport failures do not recurse")
+    void synchronousFailures() {
+        final CompletableFuture<Object> blocking = new CompletableFuture<>();
+        final AtomicInteger sent = new AtomicInteger();
+        final Transport transport = new Transport() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> CompletableFuture<T> send(final TransportRequest request, final ResponseHandler<T> handler) {
+                if (sent.getAndIncrement() == 0)
+                    return (CompletableFuture<T>) blocking;
+                final CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IOException("too many connections"));
+                return failed;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final RequestScheduler scheduler = new RequestScheduler(1);
+        final BMSClient bms = new BMSClient("http://localhost", "1", Base64.getEncoder().encodeToString(new byte[32]), transport)
+                .withRequestScheduler(scheduler);
+
+        final ListenableFuture<Result<Boolean>> first = bms.postCounter("type", "first", 1L);
+        final List<ListenableFuture<Result<Boolean>>> queued = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++)
+            queued.add(bms.postCounter("type", "k" + i, 1L));
+        assertEquals(20_000, scheduler.getQueued());
+
+        blocking.completeExceptionally(new IOException("connection closed"));
+
+        assertTrue(first.isDone());
+        for (final ListenableFuture<Result<Boolean>> f : queued)
+            assertTrue(f.isDone(), "all the queued requests should be completed");
+        assertEquals(0, scheduler.getInFlight());
+        assertEquals(0, scheduler.getQueued());
+        assertEquals(20_001, sent.get());
+    }
+
+    @Test
+    @DisplayName("Queued requests expire at their deadline")
+    void queuedDeadlines() throws Exception {
+        final AtomicInteger sent = new AtomicInteger();
+        final Transport transport = new Transport() {
+            @Override
+            public <T> CompletableFuture<T> send(final TransportRequest request, final ResponseHandler<T> handler) {
+                sent.incrementAndGet();
+                return new CompletableFuture<>();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final RequestScheduler scheduler = new RequestScheduler(1);
+        final BMSClient bms = new BMSClient("http://localhost", "1", Base64.getEncoder().encodeToString(new byte[32]), transport)
+                .withRequestScheduler(scheduler);
+
+        // the head request never completes, then the queued one only could expire while waiting
+        bms.postCounter("type", "head", 1L);
+        final ListenableFuture<Result<Boolean>> queued = bms.postCounter("type", "queued", 1L, Deadline.afterMillis(50L));
+        final ListenableFuture<Result<Boolean>> waiting = bms.postCounter("type", "waiting", 1L);
+        assertEquals(2, scheduler.getQueued());
+
+        assertTrue(queued.get(5, TimeUnit.SECONDS).isDeadlineExceeded());
+        assertEquals(1, scheduler.getQueued());
+        assertEquals(1, sent.get());
+        assertFalse(waiting.isDone());
+    }
+
+    @Test
+    @DisplayName("Queue time metrics")
+    void stats() throws InterruptedException {
+        final RequestScheduler scheduler = new RequestScheduler(1, 1);
+
+        scheduler.submit(ADMISSION, () -> true);
+        scheduler.submit(ADMISSION, () -> true);
+        Thread.sleep(20L);
+        scheduler.release(ADMISSION);
+
+        final LaneStats stats = scheduler.getStats(ADMISSION);
+        assertEquals(2, stats.getStarted());
+        assertEquals(1, stats.getInFlight());
+        assertTrue(stats.getMaxQueueTimeNanos() >= 20_000_000L);
+        assertTrue(stats.getQueueTimePercentileNanos(99.0) >= 20_000_000L);
+        assertEquals(0L, stats.getQueueTimePercentileNanos(50.0));
+        assertEquals(0, scheduler.getStats(ADMIN).getStarted());
+    }
+}
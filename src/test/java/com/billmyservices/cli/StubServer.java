@@ -0,0 +1,846 @@
+package com.billmyservices.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+import static com.billmyservices.cli.CounterVersion.FrequencyCounter;
+
+/**
+ * Minimal in memory Bill My Services compatible server, used to run the benchmarks without any real endpoint.
+ * <p>
+ * Speaks HTTP/1.1 (keep alive) and cleartext HTTP/2 (h2c), both upgraded from one HTTP/1.1 request (as
+ * `java.net.http` does) and with prior knowledge. Only what the client sends is supported: no request bodies, no server
+ * push, the HPACK dynamic table is only decoded (responses are never indexed nor Huffman encoded). Requests are not
+ * authenticated.
+ * <p>
+ * One thread for each connection (and one more writing the responses of each HTTP/2 connection), it is one stub, not
+ * one server to be measured.
+ */
+final class StubServer implements Closeable {
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY = 0x20;
+
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int DEFAULT_WINDOW = 65_535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+
+    private final ServerSocket server;
+    private final Thread acceptor;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    // `userId/counterTypeCode` to counter type
+    private final Map<String, StubCounterType> counterTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Start a new one stub server
+     *
+     * @param port the port to listen on, 0 for one ephemeral port
+     * @throws IOException if the server cannot listen
+     */
+    StubServer(final int port) throws IOException {
+        this.server = new ServerSocket(port, 1_024, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::accept, "bms-stub");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Run one stub server until killed
+     *
+     * @param args the options, `--port=value` (by default 8080)
+     * @throws Exception if the server cannot be started
+     */
+    public static void main(final String... args) throws Exception {
+        final int port = Integer.parseInt(LoadGenerator.parseOptions(args).getOrDefault("port", "8080"));
+        try (final StubServer stub = new StubServer(port)) {
+            System.out.printf("stub server listening on http://localhost:%d (HTTP/1.1 and h2c)%n", stub.getPort());
+            stub.acceptor.join();
+        }
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (final Socket socket : sockets)
+            closeQuietly(socket);
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                // the server was closed
+                return;
+            }
+            sockets.add(socket);
+            final Thread connection = new Thread(() -> serve(socket), "bms-stub-connection");
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+            final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                final String requestLine = readLine(in);
+                if (requestLine == null)
+                    return;
+                if (requestLine.equals("PRI * HTTP/2.0")) {
+                    // prior knowledge, the rest of the preface is `\r\nSM\r\n\r\n`
+                    readLine(in);
+                    readLine(in);
+                    readLine(in);
+                    new Http2(in, out, DEFAULT_WINDOW, DEFAULT_MAX_FRAME_SIZE).serve(null);
+                    return;
+                }
+                final String[] parts = requestLine.split(" ");
+                if (parts.length != 3)
+                    return;
+                final Map<String, String> headers = new HashMap<>();
+                for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                    final int colon = line.indexOf(':');
+                    if (colon > 0)
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+                final long contentLength = Long.parseLong(headers.getOrDefault("content-length", "0"));
+                for (long skipped = 0L; skipped < contentLength; skipped++)
+                    if (in.read() < 0)
+                        return;
+                final Response response = handle(parts[0], parts[1], headers::get);
+
+                if ("h2c".equalsIgnoreCase(headers.get("upgrade")) && headers.containsKey("http2-settings")) {
+                    out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    final Http2 http2 = new Http2(in, out, DEFAULT_WINDOW, DEFAULT_MAX_FRAME_SIZE);
+                    http2.settings(Base64.getUrlDecoder().decode(headers.get("http2-settings")));
+                    http2.serve(response);
+                    return;
+                }
+
+                out.write(String.format("HTTP/1.1 %d %s\r\nContent-Type: application/json\r\nContent-Length: %d\r\n\r\n",
+                        response.status, reason(response.status), response.body.length).getBytes(StandardCharsets.US_ASCII));
+                out.write(response.body);
+                out.flush();
+                if ("close".equalsIgnoreCase(headers.get("connection")))
+                    return;
+            }
+        } catch (IOException | RuntimeException e) {
+            // the connection is closed
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c >= 0; c = in.read()) {
+            if (c == '\n') {
+                final int n = line.length();
+                return n > 0 && line.charAt(n - 1) == '\r' ? line.substring(0, n - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return null;
+    }
+
+    private static String reason(final int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 400:
+                return "Bad Request";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            default:
+                return "Method Not Allowed";
+        }
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Run one Bill My Services operation, the path is `/userId[/counterTypeCode[/counterCode]]`
+     */
+    Response handle(final String method, final String path, final Function<String, String> header) {
+        final String[] xs = path.split("/");
+        if (xs.length < 2 || xs.length > 4 || !xs[0].isEmpty())
+            return Response.NOT_FOUND;
+        final String userId = xs[1];
+        try {
+            if (xs.length == 2)
+                return "GET".equals(method) ? listCounterTypes(userId) : Response.NOT_ALLOWED;
+            final String key = userId + "/" + xs[2];
+            if (xs.length == 3) {
+                switch (method) {
+                    case "PUT":
+                        counterTypes.compute(key, (k, before) -> new StubCounterType(new CounterType(xs[2], header.apply("wsb-name"),
+                                Long.parseLong(header.apply("wsb-value")), Long.parseLong(header.apply("wsb-k1")),
+                                Long.parseLong(header.apply("wsb-k2")), CounterVersion.valueOf(header.apply("wsb-mode"))), before));
+                        return Response.OK;
+                    case "GET":
+                        final StubCounterType counterType = counterTypes.get(key);
+                        return counterType == null ? Response.NOT_FOUND : readCounterType(counterType);
+                    case "DELETE":
+                        return counterTypes.remove(key) == null ? Response.NOT_FOUND : Response.OK;
+                    default:
+                        return Response.NOT_ALLOWED;
+                }
+            }
+            final StubCounterType counterType = counterTypes.get(key);
+            if (counterType == null)
+                return Response.NOT_FOUND;
+            switch (method) {
+                case "POST":
+                    return counterType.post(xs[3], Long.parseLong(header.apply("wsb-value"))) ? Response.OK : Response.DENIED;
+                case "GET":
+                    final long[] counter = counterType.read(xs[3]);
+                    return Response.json(appendCounter(new StringBuilder(), xs[3], counter[0], counter[1]));
+                case "DELETE":
+                    counterType.counters.remove(xs[3]);
+                    return Response.OK;
+                default:
+                    return Response.NOT_ALLOWED;
+            }
+        } catch (RuntimeException e) {
+            // missing or malformed headers
+            return Response.BAD_REQUEST;
+        }
+    }
+
+    private Response listCounterTypes(final String userId) {
+        final StringBuilder json = new StringBuilder("[");
+        for (final Map.Entry<String, StubCounterType> e : counterTypes.entrySet())
+            if (e.getKey().startsWith(userId + "/")) {
+                if (json.length() > 1)
+                    json.append(',');
+                appendCounterType(json, e.getValue().counterType);
+            }
+        return Response.json(json.append(']'));
+    }
+
+    private static Response readCounterType(final StubCounterType counterType) {
+        final StringBuilder json = new StringBuilder("{\"counterType\":");
+        appendCounterType(json, counterType.counterType).append(",\"counters\":[");
+        boolean first = true;
+        for (final Map.Entry<String, long[]> e : counterType.counters.entrySet()) {
+            if (!first)
+                json.append(',');
+            first = false;
+            final long[] counter = e.getValue();
+            synchronized (counter) {
+                appendCounter(json, e.getKey(), counter[0], counter[1]);
+            }
+        }
+        return Response.json(json.append("]}"));
+    }
+
+    private static StringBuilder appendCounterType(final StringBuilder json, final CounterType counterType) {
+        json.append("{\"code\":");
+        appendString(json, counterType.getCode()).append(",\"name\":");
+        appendString(json, counterType.getName());
+        return json.append(",\"value\":").append(counterType.getValue())
+                .append(",\"k1\":").append(counterType.getK1())
+                .append(",\"k2\":").append(counterType.getK2())
+                .append(",\"version\":\"").append(counterType.getVersion()).append("\"}");
+    }
+
+    private static StringBuilder appendCounter(final StringBuilder json, final String code, final long value, final long timeRef) {
+        json.append("{\"code\":");
+        return appendString(json, code).append(",\"timeRef\":").append(timeRef).append(",\"value\":").append(value).append('}');
+    }
+
+    private static StringBuilder appendString(final StringBuilder json, final String s) {
+        if (s == null)
+            return json.append("null");
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c < 0x20)
+                json.append(String.format("\\u%04x", (int) c));
+            else
+                json.append(c);
+        }
+        return json.append('"');
+    }
+
+    /**
+     * One stored counter type with its counters (value and time reference, guarded by themselves)
+     */
+    private static final class StubCounterType {
+        private final CounterType counterType;
+        private final Map<String, long[]> counters;
+
+        StubCounterType(final CounterType counterType, final StubCounterType before) {
+            this.counterType = counterType;
+            this.counters = before == null ? new ConcurrentHashMap<>() : before.counters;
+        }
+
+        /**
+         * Absolute counters are granted while the value stays between k1 and k2, frequency counters while the value
+         * posted in the current k2 seconds window does not exceed k1
+         */
+        boolean post(final String code, final long delta) {
+            final long now = System.currentTimeMillis() / 1_000L;
+            final long[] counter = counters.computeIfAbsent(code, k -> new long[]{counterType.getValue(), now});
+            synchronized (counter) {
+                if (counterType.getVersion() == FrequencyCounter && now >= counter[1] + counterType.getK2()) {
+                    counter[0] = counterType.getValue();
+                    counter[1] = now;
+                }
+                final long next = counter[0] + delta;
+                if (counterType.getVersion() == FrequencyCounter ? next > counterType.getK1() : next < counterType.getK1() || next > counterType.getK2())
+                    return false;
+                counter[0] = next;
+                return true;
+            }
+        }
+
+        long[] read(final String code) {
+            final long[] counter = counters.get(code);
+            if (counter == null)
+                return new long[]{counterType.getValue(), 0L};
+            synchronized (counter) {
+                return counter.clone();
+            }
+        }
+    }
+
+    /**
+     * One operation response
+     */
+    static final class Response {
+        static final Response OK = new Response(200, new byte[0]);
+        static final Response BAD_REQUEST = new Response(400, new byte[0]);
+        static final Response DENIED = new Response(403, new byte[0]);
+        static final Response NOT_FOUND = new Response(404, new byte[0]);
+        static final Response NOT_ALLOWED = new Response(405, new byte[0]);
+
+        final int status;
+        final byte[] body;
+
+        Response(final int status, final byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response json(final CharSequence json) {
+            return new Response(200, json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * One HTTP/2 connection, the frames are read (and the requests handled) by the connection thread, the responses are
+     * written by one writer thread waiting for the peer flow control windows, both write under the connection lock
+     */
+    private final class Http2 {
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final Hpack hpack = new Hpack();
+        private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+        private final Map<Integer, Map<String, String>> receiving = new HashMap<>();
+        private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+        private int headersStreamId = 0;
+        private boolean headersEndStream = false;
+
+        // guarded by this
+        private final Map<Integer, long[]> streamWindows = new HashMap<>();
+        private long connectionWindow = DEFAULT_WINDOW;
+        private int initialWindow;
+        private int maxFrameSize;
+        private boolean closed = false;
+
+        Http2(final InputStream in, final OutputStream out, final int initialWindow, final int maxFrameSize) {
+            this.in = new DataInputStream(in);
+            this.out = out;
+            this.initialWindow = initialWindow;
+            this.maxFrameSize = maxFrameSize;
+        }
+
+        /**
+         * Serve the connection until closed
+         *
+         * @param upgraded may be null (prior knowledge, the preface was already read), the response of the upgraded
+         *                 request (stream 1)
+         */
+        void serve(final Response upgraded) throws IOException {
+            final Thread writer = new Thread(this::write, "bms-stub-h2-writer");
+            writer.setDaemon(true);
+            try {
+                synchronized (this) {
+                    writeFrame(SETTINGS, 0, 0, new byte[0], 0, 0);
+                    out.flush();
+                    if (upgraded != null) {
+                        streamWindows.put(1, new long[]{initialWindow});
+                        replies.add(new Reply(1, upgraded));
+                    }
+                }
+                writer.start();
+                if (upgraded != null) {
+                    final byte[] preface = new byte[PREFACE.length];
+                    in.readFully(preface);
+                    if (!Arrays.equals(PREFACE, preface))
+                        return;
+                }
+                read();
+            } finally {
+                synchronized (this) {
+                    closed = true;
+                    notifyAll();
+                }
+                writer.interrupt();
+            }
+        }
+
+        private void read() throws IOException {
+            while (true) {
+                final int length;
+                try {
+                    length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                } catch (EOFException e) {
+                    return;
+                }
+                final int type = in.readUnsignedByte();
+                final int flags = in.readUnsignedByte();
+                final int streamId = in.readInt() & 0x7FFFFFFF;
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                switch (type) {
+                    case HEADERS:
+                        int offset = 0;
+                        int end = length;
+                        if ((flags & PADDED) != 0) {
+                            offset = 1;
+                            end -= payload[0] & 0xFF;
+                        }
+                        if ((flags & PRIORITY) != 0)
+                            offset += 5;
+                        headerBlock.reset();
+                        headerBlock.write(payload, offset, end - offset);
+                        headersStreamId = streamId;
+                        headersEndStream = (flags & END_STREAM) != 0;
+                        if ((flags & END_HEADERS) != 0)
+                            headersReceived();
+                        break;
+                    case CONTINUATION:
+                        headerBlock.write(payload, 0, length);
+                        if ((flags & END_HEADERS) != 0)
+                            headersReceived();
+                        break;
+                    case DATA:
+                        if (length > 0)
+                            synchronized (this) {
+                                writeWindowUpdate(0, length);
+                                if ((flags & END_STREAM) == 0)
+                                    writeWindowUpdate(streamId, length);
+                                out.flush();
+                            }
+                        if ((flags & END_STREAM) != 0 && receiving.containsKey(streamId))
+                            dispatch(streamId, receiving.remove(streamId));
+                        break;
+                    case RST_STREAM:
+                        receiving.remove(streamId);
+                        synchronized (this) {
+                            streamWindows.remove(streamId);
+                        }
+                        break;
+                    case SETTINGS:
+                        if ((flags & ACK) == 0)
+                            synchronized (this) {
+                                settings(payload);
+                                writeFrame(SETTINGS, ACK, 0, new byte[0], 0, 0);
+                                out.flush();
+                            }
+                        break;
+                    case PING:
+                        if ((flags & ACK) == 0)
+                            synchronized (this) {
+                                writeFrame(PING, ACK, 0, payload, 0, length);
+                                out.flush();
+                            }
+                        break;
+                    case GOAWAY:
+                        return;
+                    case WINDOW_UPDATE:
+                        final int increment = ByteBuffer.wrap(payload).getInt() & 0x7FFFFFFF;
+                        synchronized (this) {
+                            if (streamId == 0)
+                                connectionWindow += increment;
+                            else if (streamWindows.containsKey(streamId))
+                                streamWindows.get(streamId)[0] += increment;
+                            notifyAll();
+                        }
+                        break;
+                    default:
+                        // priorities and unknown frames are ignored
+                }
+            }
+        }
+
+        /**
+         * Apply the peer settings
+         */
+        synchronized void settings(final byte[] payload) {
+            final ByteBuffer settings = ByteBuffer.wrap(payload);
+            while (settings.remaining() >= 6) {
+                final int id = settings.getShort() & 0xFFFF;
+                final int value = settings.getInt();
+                if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+                    for (final long[] window : streamWindows.values())
+                        window[0] += value - initialWindow;
+                    initialWindow = value;
+                    notifyAll();
+                } else if (id == SETTINGS_MAX_FRAME_SIZE)
+                    maxFrameSize = value;
+            }
+        }
+
+        private void headersReceived() {
+            final Map<String, String> headers = hpack.decode(headerBlock.toByteArray());
+            synchronized (this) {
+                streamWindows.put(headersStreamId, new long[]{initialWindow});
+            }
+            if (headersEndStream)
+                dispatch(headersStreamId, headers);
+            else
+                receiving.put(headersStreamId, headers);
+        }
+
+        private void dispatch(final int streamId, final Map<String, String> headers) {
+            replies.add(new Reply(streamId, handle(headers.get(":method"), headers.get(":path"), headers::get)));
+        }
+
+        private void write() {
+            try {
+                while (true) {
+                    final Reply reply = replies.take();
+                    synchronized (this) {
+                        if (closed)
+                            return;
+                        if (streamWindows.containsKey(reply.streamId))
+                            writeReply(reply);
+                        if (replies.isEmpty())
+                            out.flush();
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                // the connection is closed
+            }
+        }
+
+        /**
+         * Write one response, waiting for the flow control windows, guarded by this
+         */
+        private void writeReply(final Reply reply) throws IOException, InterruptedException {
+            final byte[] body = reply.response.body;
+            final byte[] block = Hpack.encode(reply.response.status, body.length);
+            writeFrame(HEADERS, END_HEADERS | (body.length == 0 ? END_STREAM : 0), reply.streamId, block, 0, block.length);
+            int sent = 0;
+            while (sent < body.length) {
+                final long[] window = streamWindows.get(reply.streamId);
+                if (window == null || closed)
+                    break;
+                final int n = (int) Math.min(Math.min(body.length - sent, maxFrameSize), Math.min(connectionWindow, window[0]));
+                if (n <= 0) {
+                    out.flush();
+                    wait();
+                    continue;
+                }
+                writeFrame(DATA, sent + n == body.length ? END_STREAM : 0, reply.streamId, body, sent, n);
+                sent += n;
+                connectionWindow -= n;
+                window[0] -= n;
+            }
+            streamWindows.remove(reply.streamId);
+        }
+
+        private void writeWindowUpdate(final int streamId, final int increment) throws IOException {
+            writeFrame(WINDOW_UPDATE, 0, streamId, ByteBuffer.allocate(4).putInt(increment).array(), 0, 4);
+        }
+
+        /**
+         * Write one frame, guarded by this
+         */
+        private void writeFrame(final int type, final int flags, final int streamId, final byte[] payload, final int offset, final int length) throws IOException {
+            out.write(length >>> 16);
+            out.write(length >>> 8);
+            out.write(length);
+            out.write(type);
+            out.write(flags);
+            out.write(ByteBuffer.allocate(4).putInt(streamId).array());
+            out.write(payload, offset, length);
+        }
+    }
+
+    private static final class Reply {
+        private final int streamId;
+        private final Response response;
+
+        Reply(final int streamId, final Response response) {
+            this.streamId = streamId;
+            this.response = response;
+        }
+    }
+
+    /**
+     * HPACK (RFC 7541) header blocks, decoded with their dynamic table and Huffman strings, encoded without indexing
+     */
+    static final class Hpack {
+
+        private static final String[][] STATIC_TABLE = {
+                {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+                {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+                {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+                {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+                {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""},
+                {"cache-control", ""}, {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+                {"content-length", ""}, {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+                {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+                {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+                {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""},
+                {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+                {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+                {"transfer-encoding", ""}, {"user-agent", ""}, {"via", ""}, {"www-authenticate", ""}};
+        private static final int STATUS = 8;
+        private static final int CONTENT_LENGTH = 28;
+        private static final int CONTENT_TYPE = 31;
+
+        // the Huffman code is canonical, then the code lengths of the 256 octets and EOS define it
+        private static final int[] CODE_LENGTHS = {
+                13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+                6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+                13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+                15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+                20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+                22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+                26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+                20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+                30};
+        private static final int MAX_CODE_LENGTH = 30;
+        // the symbols sorted by code, and for each code length its first code and its first symbol position
+        private static final int[] SYMBOLS = new int[CODE_LENGTHS.length];
+        private static final int[] FIRST_CODE = new int[MAX_CODE_LENGTH + 1];
+        private static final int[] FIRST_SYMBOL = new int[MAX_CODE_LENGTH + 1];
+        private static final int[] COUNT = new int[MAX_CODE_LENGTH + 1];
+
+        static {
+            for (final int length : CODE_LENGTHS)
+                COUNT[length]++;
+            int code = 0;
+            int position = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                code = (code + COUNT[length - 1]) << 1;
+                FIRST_CODE[length] = code;
+                FIRST_SYMBOL[length] = position;
+                for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++)
+                    if (CODE_LENGTHS[symbol] == length)
+                        SYMBOLS[position++] = symbol;
+            }
+        }
+
+        // newest first
+        private final List<String[]> dynamicTable = new ArrayList<>();
+        private int dynamicTableSize = 0;
+        private int maxDynamicTableSize = 4_096;
+        private byte[] block;
+        private int position;
+
+        /**
+         * Decode one header block, the last value of each repeated header is kept
+         */
+        Map<String, String> decode(final byte[] block) {
+            this.block = block;
+            this.position = 0;
+            final Map<String, String> headers = new HashMap<>();
+            while (position < block.length) {
+                final int b = block[position] & 0xFF;
+                if ((b & 0x80) != 0) {
+                    final String[] header = entry(readInt(7));
+                    headers.put(header[0], header[1]);
+                } else if ((b & 0x40) != 0) {
+                    final int index = readInt(6);
+                    final String name = index == 0 ? readString() : entry(index)[0];
+                    final String value = readString();
+                    add(name, value);
+                    headers.put(name, value);
+                } else if ((b & 0x20) != 0) {
+                    maxDynamicTableSize = readInt(5);
+                    evict(0);
+                } else {
+                    // without indexing or never indexed
+                    final int index = readInt(4);
+                    final String name = index == 0 ? readString() : entry(index)[0];
+                    headers.put(name, readString());
+                }
+            }
+            return headers;
+        }
+
+        /**
+         * Encode one response header block
+         */
+        static byte[] encode(final int status, final int contentLength) {
+            final ByteArrayOutputStream block = new ByteArrayOutputStream();
+            if (status == 200)
+                block.write(0x80 | STATUS);
+            else
+                writeLiteral(block, STATUS, Integer.toString(status));
+            if (contentLength > 0)
+                writeLiteral(block, CONTENT_TYPE, "application/json");
+            writeLiteral(block, CONTENT_LENGTH, Integer.toString(contentLength));
+            return block.toByteArray();
+        }
+
+        private static void writeLiteral(final ByteArrayOutputStream block, final int nameIndex, final String value) {
+            writeInt(block, 0x00, 4, nameIndex);
+            final byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+            writeInt(block, 0x00, 7, bytes.length);
+            block.write(bytes, 0, bytes.length);
+        }
+
+        private static void writeInt(final ByteArrayOutputStream block, final int mask, final int prefix, final int value) {
+            final int max = (1 << prefix) - 1;
+            if (value < max) {
+                block.write(mask | value);
+                return;
+            }
+            block.write(mask | max);
+            int rest = value - max;
+            while (rest >= 0x80) {
+                block.write(rest & 0x7F | 0x80);
+                rest >>>= 7;
+            }
+            block.write(rest);
+        }
+
+        private String[] entry(final int index) {
+            if (index >= 1 && index <= STATIC_TABLE.length)
+                return STATIC_TABLE[index - 1];
+            final int dynamicIndex = index - STATIC_TABLE.length - 1;
+            if (dynamicIndex < 0 || dynamicIndex >= dynamicTable.size())
+                throw new IllegalStateException(String.format("invalid HPACK index %d", index));
+            return dynamicTable.get(dynamicIndex);
+        }
+
+        private void add(final String name, final String value) {
+            final int size = name.length() + value.length() + 32;
+            evict(size);
+            if (size <= maxDynamicTableSize) {
+                dynamicTable.add(0, new String[]{name, value});
+                dynamicTableSize += size;
+            }
+        }
+
+        /**
+         * Evict the oldest entries until one new entry of the given size fits
+         */
+        private void evict(final int size) {
+            while (!dynamicTable.isEmpty() && dynamicTableSize + size > maxDynamicTableSize) {
+                final String[] evicted = dynamicTable.remove(dynamicTable.size() - 1);
+                dynamicTableSize -= evicted[0].length() + evicted[1].length() + 32;
+            }
+        }
+
+        private int readInt(final int prefix) {
+            final int max = (1 << prefix) - 1;
+            int value = block[position++] & max;
+            if (value < max)
+                return value;
+            int shift = 0;
+            int b;
+            do {
+                b = block[position++] & 0xFF;
+                value += (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String readString() {
+            final boolean huffman = (block[position] & 0x80) != 0;
+            final int length = readInt(7);
+            final String s = huffman ? huffman(position, length) : new String(block, position, length, StandardCharsets.ISO_8859_1);
+            position += length;
+            return s;
+        }
+
+        /**
+         * Decode one Huffman string, the last incomplete code is the EOS padding
+         */
+        private String huffman(final int offset, final int length) {
+            final StringBuilder s = new StringBuilder(length * 8 / 5);
+            int code = 0;
+            int codeLength = 0;
+            for (int i = offset; i < offset + length; i++)
+                for (int bit = 7; bit >= 0; bit--) {
+                    code = code << 1 | (block[i] >>> bit & 1);
+                    codeLength++;
+                    if (code - FIRST_CODE[codeLength] < COUNT[codeLength] && code >= FIRST_CODE[codeLength]) {
+                        s.append((char) SYMBOLS[FIRST_SYMBOL[codeLength] + code - FIRST_CODE[codeLength]]);
+                        code = 0;
+                        codeLength = 0;
+                    } else if (codeLength == MAX_CODE_LENGTH)
+                        throw new IllegalStateException("invalid HPACK Huffman string");
+                }
+            return s.toString();
+        }
+    }
+}
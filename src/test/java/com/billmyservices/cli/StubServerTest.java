@@ -0,0 +1,59 @@
+package com.billmyservices.cli;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Base64;
+import java.util.Map;
+
+import static com.billmyservices.cli.CounterVersion.AbsoluteCounter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("Benchmark stub server test suite")
+class StubServerTest {
+
+    @Test
+    @DisplayName("HPACK header blocks with Huffman strings are decoded")
+    void hpack() {
+        // RFC 7541, C.4.1
+        final byte[] block = new byte[17];
+        final String hex = "828684418cf1e3c2e5f23a6ba0ab90f4ff";
+        for (int i = 0; i < block.length; i++)
+            block[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        final Map<String, String> headers = new StubServer.Hpack().decode(block);
+        assertEquals("GET", headers.get(":method"));
+        assertEquals("http", headers.get(":scheme"));
+        assertEquals("/", headers.get(":path"));
+        assertEquals("www.example.com", headers.get(":authority"));
+    }
+
+    @Test
+    @DisplayName("Counters are served through the counting proxy, closing it closes the proxied connections")
+    void proxied() throws Exception {
+        final ConnectionCountingProxy counting;
+        try (final StubServer stub = new StubServer(0);
+             final ConnectionCountingProxy proxy = new ConnectionCountingProxy(new InetSocketAddress(InetAddress.getLoopbackAddress(), stub.getPort()));
+             final Transport transport = LoadGenerator.newTransport("ahc")) {
+            counting = proxy;
+            final BMSClient bms = new BMSClient(String.format("http://localhost:%d", proxy.getPort()), "1",
+                    Base64.getEncoder().encodeToString(new byte[32]), transport);
+
+            assertTrue(bms.addCounterType(new CounterType("limited", "limited", 0L, 0L, 5L, AbsoluteCounter)).get().isSuccess());
+            for (int i = 0; i < 5; i++)
+                assertTrue(bms.postCounter("limited", "Peter", 1L).get().isSuccess());
+            assertFalse(bms.postCounter("limited", "Peter", 1L).get().isSuccess(), "over k2 posts should be denied");
+            assertEquals(5L, bms.readCounter("limited", "Peter").get().get().getValue());
+            assertEquals(1, bms.readCounterType("limited").get().get().getCounters().length);
+            assertTrue(bms.deleteCounterType("limited").get().isSuccess());
+            assertFalse(bms.readCounter("limited", "Peter").get().isSuccess(), "deleted counter types should not be found");
+
+            assertTrue(proxy.getTotalConnections() > 0);
+            assertTrue(proxy.getOpenConnections() > 0, "the pooled connections should be kept open");
+        }
+        assertEquals(0, counting.getOpenConnections());
+    }
+}
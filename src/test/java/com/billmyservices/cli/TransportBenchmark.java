@@ -0,0 +1,81 @@
+package com.billmyservices.cli;
+
+import org.HdrHistogram.Histogram;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare the transports at high concurrency: the same closed loop workload (see `LoadGenerator`) is run with each
+ * transport against one local h2c (cleartext HTTP/2) Bill My Services compatible server, through one local proxy
+ * counting the opened connections, then reports the connections (peak and total), throughput and tail latencies.
+ * <p>
+ * Options (`--name=value`) are the `LoadGenerator` ones, in addition:
+ * <ul>
+ * <li>`url`: the local h2c server (e.g. one `StubServer` run on its own), by default, one `StubServer` is started in
+ * this process (with any `user` and `secret`)</li>
+ * <li>`transports`: the transports to compare, by default `ahc,http2`</li>
+ * <li>`concurrency`: the outstanding requests, by default 1024</li>
+ * </ul>
+ */
+public final class TransportBenchmark {
+
+    private TransportBenchmark() {
+    }
+
+    /**
+     * Run the benchmark
+     *
+     * @param args the options, `--name=value`
+     * @throws Exception if the benchmark cannot be run
+     */
+    public static void main(final String... args) throws Exception {
+        final Map<String, String> options = new HashMap<>(LoadGenerator.parseOptions(args));
+        options.putIfAbsent("concurrency", "1024");
+        options.remove("rate");
+        final StubServer stub = options.containsKey("url") ? null : new StubServer(0);
+        if (stub != null) {
+            options.put("url", String.format("http://localhost:%d", stub.getPort()));
+            options.putIfAbsent("user", "1");
+            options.putIfAbsent("secret", Base64.getEncoder().encodeToString(new byte[32]));
+        }
+        final URI server = URI.create(options.get("url"));
+        final InetSocketAddress target = new InetSocketAddress(server.getHost(), server.getPort() < 0 ? 80 : server.getPort());
+
+        try {
+            compare(options, server, target);
+        } finally {
+            if (stub != null)
+                stub.close();
+        }
+    }
+
+    private static void compare(final Map<String, String> options, final URI server, final InetSocketAddress target) throws Exception {
+        final List<String> lines = new ArrayList<>();
+        for (final String name : options.getOrDefault("transports", "ahc,http2").split(",")) {
+            System.out.printf("%n== %s ==%n", name);
+            try (final ConnectionCountingProxy proxy = new ConnectionCountingProxy(target);
+                 final Transport transport = LoadGenerator.newTransport(name)) {
+                final String url = String.format("http://localhost:%d%s", proxy.getPort(), server.getRawPath());
+                final Histogram h = LoadGenerator.run(transport, url, options);
+                final double seconds = (h.getEndTimeStamp() - h.getStartTimeStamp()) / 1e3;
+                lines.add(String.format("%-10s %12d %12d %12.1f %10.3f %10.3f %10.3f",
+                        name,
+                        proxy.getPeakConnections(),
+                        proxy.getTotalConnections(),
+                        h.getTotalCount() / seconds,
+                        h.getValueAtPercentile(99.0) / 1e6,
+                        h.getValueAtPercentile(99.9) / 1e6,
+                        h.getMaxValue() / 1e6));
+            }
+        }
+
+        System.out.printf("%n%-10s %12s %12s %12s %10s %10s %10s%n", "transport", "peak conns", "total conns", "ops/s", "p99(ms)", "p99.9(ms)", "max(ms)");
+        lines.forEach(System.out::println);
+    }
+}